@@ -0,0 +1,97 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package benchmarks;
+
+import entities.FileModel;
+import helpers.DocumentContext;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//the editor configuration EditorServlet builds and serializes for every uncached editor open
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileModelBenchmark
+{
+    private static final String FileName = "sample.docx";
+
+    @Param({ "edit", "view", "embedded" })
+    public String mode;
+
+    private Path storage;
+    private DocumentContext context;
+    private FileModel model;
+
+    @Setup
+    public void Setup() throws Exception
+    {
+        storage = Fixtures.CreateStorage();
+        context = Fixtures.CreateContext(storage);
+        Fixtures.CreateDocument(context, FileName, 10);
+
+        model = Create();
+    }
+
+    @TearDown
+    public void TearDown() throws Exception
+    {
+        Fixtures.Delete(storage);
+    }
+
+    @Benchmark
+    public FileModel Create()
+    {
+        FileModel file = new FileModel(context, FileName, "en", "uid-1", "John Smith", null);
+        file.changeType(mode, "embedded".equals(mode) ? "embedded" : "desktop");
+        return file;
+    }
+
+    @Benchmark
+    public String Serialize()
+    {
+        return FileModel.Serialize(model);
+    }
+
+    @Benchmark
+    public String BuildToken()
+    {
+        model.BuildToken();
+        return model.token;
+    }
+
+    @Benchmark
+    public Boolean HasHistory()
+    {
+        return model.HasHistory();
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package benchmarks;
+
+import entities.FileFormat;
+import entities.FileType;
+import helpers.FileUtility;
+import helpers.ServiceConverter;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+//the name helpers called for every row of the files list and every editor open
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileUtilityBenchmark
+{
+    private static final String[] Names = {
+        "sample.docx", "Report 2020 (1).DOCX", "budget.xlsx", "slides.pptx", "notes.txt", "data.csv",
+        "scan.pdf", "book.djvu", "old.doc", "legacy.xls", "deck.ppt", "open.odt", "sheet.ods",
+        "show.odp", "page.html", "letter.rtf", "archive.tar.gz", "no extension", ".hidden", "image.PNG"
+    };
+
+    private static final String[] Keys = {
+        "127.0.0.1/sample.docx/1585735200000", "10.0.0.15/Report 2020 (1).DOCX/1585735200000",
+        "short-key", "https://documentserver/cache/files/1234567890/output.docx?md5=abc&expires=1585735200"
+    };
+
+    @Benchmark
+    @OperationsPerInvocation(20)
+    public void GetFileType(Blackhole blackhole)
+    {
+        for (String name : Names)
+        {
+            FileType type = FileUtility.GetFileType(name);
+            blackhole.consume(type);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(20)
+    public void GetFileExtension(Blackhole blackhole)
+    {
+        for (String name : Names)
+        {
+            blackhole.consume(FileUtility.GetFileExtension(name));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(20)
+    public void GetFileFormat(Blackhole blackhole)
+    {
+        for (String name : Names)
+        {
+            FileFormat format = FileUtility.GetFileFormat(name);
+            blackhole.consume(format);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(4)
+    public void GenerateRevisionId(Blackhole blackhole)
+    {
+        for (String key : Keys)
+        {
+            blackhole.consume(ServiceConverter.GenerateRevisionId(key));
+        }
+    }
+}
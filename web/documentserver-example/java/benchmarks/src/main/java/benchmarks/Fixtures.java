@@ -0,0 +1,109 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package benchmarks;
+
+import helpers.DocumentContext;
+import helpers.DocumentManager;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+//storage directories of the example laid out in a temp dir, each benchmark trial gets its own
+public class Fixtures
+{
+    public static final String ServerUrl = "http://localhost:8080/OnlineEditorsExampleJava";
+    public static final String HostAddress = "127.0.0.1";
+
+    public static Path CreateStorage() throws IOException
+    {
+        return Files.createTempDirectory("example-benchmark");
+    }
+
+    public static DocumentContext CreateContext(Path storage)
+    {
+        return new DocumentContext(ServerUrl, storage.toString() + File.separator, HostAddress);
+    }
+
+    //a document with the given number of saved versions, as the track callback leaves them
+    public static String CreateDocument(DocumentContext context, String fileName, int versions) throws Exception
+    {
+        Random random = new Random(versions);
+
+        String storagePath = DocumentManager.StoragePath(context, fileName, null);
+        Files.write(new File(storagePath).toPath(), RandomBytes(random, 16 * 1024));
+        DocumentManager.CreateMeta(context, fileName, "uid-1", "John Smith");
+
+        String histDir = DocumentManager.HistoryDir(storagePath);
+        String ext = fileName.substring(fileName.lastIndexOf('.'));
+
+        for (int i = 1; i <= versions; i++)
+        {
+            File versionDir = new File(DocumentManager.VersionDir(histDir, i));
+            versionDir.mkdirs();
+
+            Files.write(new File(versionDir, "prev" + ext).toPath(), RandomBytes(random, 1024));
+            Files.write(new File(versionDir, "diff.zip").toPath(), RandomBytes(random, 512));
+            Write(new File(versionDir, "key.txt"), "key-" + i);
+            Write(new File(versionDir, "changes.json"), "{\"serverVersion\":\"5.5.3\",\"changes\":[{\"created\":\"2020-04-01 10:00:0" + (i % 10)
+                    + "\",\"user\":{\"id\":\"uid-" + (i % 3 + 1) + "\",\"name\":\"User " + (i % 3 + 1) + "\"}}]}");
+        }
+
+        return storagePath;
+    }
+
+    public static byte[] RandomBytes(Random random, int length)
+    {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    public static void Delete(Path root) throws IOException
+    {
+        if (root == null || !Files.exists(root)) return;
+
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException
+            {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void Write(File file, String content) throws IOException
+    {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package benchmarks;
+
+import helpers.DocumentContext;
+import helpers.DocumentManager;
+import helpers.HistoryManager;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+//the version history served to the editor, from the history.txt cache and rebuilt from the version directories
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark
+{
+    private static final String FileName = "sample.docx";
+
+    @Param({ "10", "100", "1000" })
+    public int versions;
+
+    private Path storage;
+    private DocumentContext context;
+    private String histDir;
+    private String curKey;
+    private long rebuilds;
+
+    @Setup
+    public void Setup() throws Exception
+    {
+        storage = Fixtures.CreateStorage();
+        context = Fixtures.CreateContext(storage);
+        histDir = DocumentManager.HistoryDir(Fixtures.CreateDocument(context, FileName, versions));
+
+        curKey = DocumentManager.GetDocumentKey(context, FileName, null);
+
+        String history = HistoryManager.GetHistory(context, histDir, FileName, curKey);
+        if (history.isEmpty()) throw new IllegalStateException("the history fixture is empty");
+    }
+
+    @TearDown
+    public void TearDown() throws Exception
+    {
+        Fixtures.Delete(storage);
+    }
+
+    @Benchmark
+    public String Cached()
+    {
+        return HistoryManager.GetHistory(context, histDir, FileName, curKey);
+    }
+
+    //the data of one version is taken from its own line of history.txt
+    @Benchmark
+    public String Data()
+    {
+        return HistoryManager.GetHistoryData(context, histDir, FileName, curKey, versions / 2);
+    }
+
+    //a new key invalidates history.txt, as a save does when the incremental update fails
+    @Benchmark
+    public String Rebuild()
+    {
+        return HistoryManager.GetHistory(context, histDir, FileName, curKey + "-" + rebuilds++);
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package benchmarks;
+
+import helpers.DocumentManager;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.primeframework.jwt.domain.JWT;
+
+//the tokens signed for every conversion and editor open and verified on every track callback
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenBenchmark
+{
+    private Map<String, Object> payload;
+    private String token;
+
+    @Setup
+    public void Setup()
+    {
+        payload = new HashMap<String, Object>();
+        payload.put("url", Fixtures.ServerUrl + "/app_data/127.0.0.1/sample.docx");
+        payload.put("outputtype", "docx");
+        payload.put("filetype", "doc");
+        payload.put("title", "sample.doc");
+        payload.put("key", "1234567890");
+        payload.put("async", true);
+
+        token = DocumentManager.CreateToken(payload);
+        if (token.isEmpty()) throw new IllegalStateException("files.docservice.secret is not set");
+    }
+
+    @Benchmark
+    public String CreateToken()
+    {
+        return DocumentManager.CreateToken(payload);
+    }
+
+    @Benchmark
+    public JWT ReadToken()
+    {
+        return DocumentManager.ReadToken(token);
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package loadtest;
+
+import helpers.DocumentManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+//sends the callbacks the document server makes to the callbackUrl of an editor
+public class CallbackDriver
+{
+    public static final int Editing = 1;
+    public static final int MustSave = 2;
+    public static final int Corrupted = 3;
+    public static final int Closed = 4;
+    public static final int ForceSave = 6;
+
+    private final StubDocumentServer stub;
+
+    public CallbackDriver(StubDocumentServer stub)
+    {
+        this.stub = stub;
+    }
+
+    //returns the response of the example, {"error":0} when the callback was accepted
+    @SuppressWarnings("unchecked")
+    public String Send(String callbackUrl, int status, String key, String ext, String userId) throws IOException
+    {
+        Map<String, Object> payload = new HashMap<String, Object>();
+        payload.put("key", key);
+        payload.put("status", status);
+        payload.put("users", Collections.singletonList(userId));
+
+        if (status == MustSave || status == Corrupted || status == ForceSave)
+        {
+            Map<String, Object> user = new HashMap<String, Object>();
+            user.put("id", userId);
+            user.put("name", "User " + userId);
+
+            Map<String, Object> change = new HashMap<String, Object>();
+            change.put("created", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()));
+            change.put("user", user);
+
+            Map<String, Object> history = new HashMap<String, Object>();
+            history.put("serverVersion", "5.5.3");
+            history.put("changes", Arrays.asList(change));
+
+            payload.put("url", stub.GetFileUrl(key, ext));
+            payload.put("changesurl", stub.GetFileUrl(key + "-changes", "zip"));
+            payload.put("history", history);
+        }
+
+        JSONObject body = new JSONObject();
+        for (Map.Entry<String, Object> entry : payload.entrySet())
+        {
+            body.put(entry.getKey(), ToJson(entry.getValue()));
+        }
+
+        //the example reads the token in the body when the secret is set, as it is sent by the document server
+        if (DocumentManager.TokenEnabled())
+        {
+            body.put("token", DocumentManager.CreateToken(payload));
+        }
+
+        byte[] bytes = body.toJSONString().getBytes(StandardCharsets.UTF_8);
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(callbackUrl).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setFixedLengthStreamingMode(bytes.length);
+
+        try (OutputStream out = connection.getOutputStream())
+        {
+            out.write(bytes);
+        }
+
+        try (InputStream stream = connection.getInputStream())
+        {
+            return new String(StubDocumentServer.ReadAll(stream), StandardCharsets.UTF_8);
+        }
+        finally
+        {
+            connection.disconnect();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object ToJson(Object value)
+    {
+        if (value instanceof Map)
+        {
+            JSONObject json = new JSONObject();
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet())
+            {
+                json.put(entry.getKey(), ToJson(entry.getValue()));
+            }
+            return json;
+        }
+
+        if (value instanceof Iterable)
+        {
+            JSONArray json = new JSONArray();
+            for (Object item : (Iterable<Object>) value)
+            {
+                json.add(ToJson(item));
+            }
+            return json;
+        }
+
+        return value;
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package loadtest;
+
+import helpers.IoExecutor;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//compares the platform and the virtual io-threads modes on saves: every editor sends save callbacks back to back,
+//and each save downloads the document from a stub document server that answers after the given latency
+public class DispatchBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int editors = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int duration = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int latency = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int maxThreads = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+
+        for (String mode : new String[] { IoExecutor.Platform, IoExecutor.Virtual })
+        {
+            Run(mode, editors, duration, latency, maxThreads);
+        }
+    }
+
+    private static void Run(String mode, int editors, int duration, int latency, int maxThreads) throws Exception
+    {
+        StubDocumentServer stub = new StubDocumentServer(8100, 1, 0, latency);
+        EmbeddedExample example = new EmbeddedExample(EmbeddedExample.DefaultWebapp()).SetMaxThreads(maxThreads).SetIoThreads(mode);
+
+        stub.Start();
+        example.Start(0);
+        try
+        {
+            System.out.println();
+            System.out.println("io-threads=" + mode + " (running as " + IoExecutor.GetMode() + "), " + editors + " editors, "
+                    + latency + " ms document server latency, " + maxThreads + " container threads");
+
+            final LoadDriver.Editor[] opened = Prepare(new LoadDriver(example.GetUrl(), stub, 0), editors);
+            final LoadDriver driver = new LoadDriver(example.GetUrl(), stub, 0);
+
+            ThreadSampler sampler = new ThreadSampler();
+            sampler.start();
+
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < editors; i++)
+            {
+                final int index = i;
+                Thread thread = new Thread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        while (System.nanoTime() < deadline)
+                        {
+                            try
+                            {
+                                driver.Track("save", opened[index], CallbackDriver.MustSave, "load-" + index);
+                            }
+                            catch (Exception ex)
+                            {
+                            }
+                        }
+                    }
+                }, "editor-" + i);
+                thread.start();
+                threads.add(thread);
+            }
+
+            for (Thread thread : threads)
+            {
+                thread.join();
+            }
+            sampler.Stop();
+
+            driver.Report(duration);
+            System.out.println("peak container threads: " + sampler.container.get() + ", peak io threads: " + sampler.io.get());
+        }
+        finally
+        {
+            example.Stop();
+            stub.Stop();
+        }
+    }
+
+    //the documents are uploaded and opened before the measurement, with a few threads
+    private static LoadDriver.Editor[] Prepare(final LoadDriver driver, final int editors) throws Exception
+    {
+        final LoadDriver.Editor[] opened = new LoadDriver.Editor[editors];
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 16; i++)
+        {
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    int index;
+                    while ((index = next.getAndIncrement()) < editors)
+                    {
+                        try
+                        {
+                            String userId = "load-" + index;
+                            opened[index] = driver.Open(driver.Upload(userId, false), userId);
+                        }
+                        catch (Exception ex)
+                        {
+                            failed.set(true);
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        if (failed.get()) throw new IllegalStateException("some documents could not be prepared");
+        return opened;
+    }
+
+    //virtual threads are not listed by the thread bean, so only the platform threads of the example are counted
+    private static class ThreadSampler extends Thread
+    {
+        private final AtomicInteger container = new AtomicInteger();
+        private final AtomicInteger io = new AtomicInteger();
+        private volatile boolean running = true;
+
+        private ThreadSampler()
+        {
+            super("thread-sampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run()
+        {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            while (running)
+            {
+                int containerThreads = 0;
+                int ioThreads = 0;
+                for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds()))
+                {
+                    if (info == null) continue;
+
+                    String name = info.getThreadName();
+                    if (name.startsWith("http-nio-") && name.contains("-exec-")) containerThreads++;
+                    else if (name.equals("docservice-io")) ioThreads++;
+                }
+
+                container.set(Math.max(container.get(), containerThreads));
+                io.set(Math.max(io.get(), ioThreads));
+
+                try
+                {
+                    Thread.sleep(100);
+                }
+                catch (InterruptedException ex)
+                {
+                    return;
+                }
+            }
+        }
+
+        private void Stop() throws InterruptedException
+        {
+            running = false;
+            join();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package loadtest;
+
+import controllers.AssetsFilter;
+import controllers.ChangesFilter;
+import controllers.CompressionFilter;
+import controllers.DownloadAsServlet;
+import controllers.EditorServlet;
+import controllers.EventsServlet;
+import controllers.ExportServlet;
+import controllers.FilesServlet;
+import controllers.HistoryServlet;
+import controllers.IndexServlet;
+import controllers.MetricsServlet;
+import controllers.RecordingServlet;
+import controllers.SearchServlet;
+import controllers.ThumbnailServlet;
+import helpers.IoExecutor;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import javax.servlet.Filter;
+import javax.servlet.FilterRegistration;
+import javax.servlet.MultipartConfigElement;
+import javax.servlet.Servlet;
+import javax.servlet.ServletContainerInitializer;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRegistration;
+import javax.servlet.annotation.MultipartConfig;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.annotation.WebServlet;
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import benchmarks.Fixtures;
+
+//the example webapp in an embedded tomcat, on a copy of src/main/webapp so that the storage goes to a temp dir
+public class EmbeddedExample
+{
+    public static final String ContextPath = "/OnlineEditorsExampleJava";
+
+    private static final List<Class<? extends Servlet>> Servlets = Arrays.<Class<? extends Servlet>>asList(
+            IndexServlet.class, EditorServlet.class, FilesServlet.class, HistoryServlet.class,
+            EventsServlet.class, ExportServlet.class, DownloadAsServlet.class, MetricsServlet.class, RecordingServlet.class, SearchServlet.class, ThumbnailServlet.class);
+
+    private static final List<Class<? extends Filter>> Filters = Arrays.<Class<? extends Filter>>asList(
+            CompressionFilter.class, AssetsFilter.class, ChangesFilter.class);
+
+    private final Path webapp;
+    private int maxThreads = 200;
+    private String ioThreads;
+    private Path base;
+    private Tomcat tomcat;
+
+    public EmbeddedExample(Path webapp)
+    {
+        this.webapp = webapp;
+    }
+
+    //the size of the container thread pool, 200 as in a default tomcat
+    public EmbeddedExample SetMaxThreads(int maxThreads)
+    {
+        this.maxThreads = maxThreads;
+        return this;
+    }
+
+    //overrides io-threads of settings.properties
+    public EmbeddedExample SetIoThreads(String ioThreads)
+    {
+        this.ioThreads = ioThreads;
+        return this;
+    }
+
+    public void Start(int port) throws Exception
+    {
+        base = Files.createTempDirectory("example-load");
+        Path docBase = base.resolve("webapp");
+        Copy(webapp, docBase);
+
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(base.resolve("tomcat").toString());
+        tomcat.setPort(port);
+        tomcat.getConnector().setProperty("maxThreads", Integer.toString(maxThreads));
+
+        //the sources are on the class path rather than in WEB-INF, so the annotations are registered here
+        Context context = tomcat.addWebapp(ContextPath, docBase.toString());
+        context.addServletContainerInitializer(new ServletContainerInitializer()
+        {
+            @Override
+            public void onStartup(Set<Class<?>> classes, ServletContext servletContext) throws ServletException
+            {
+                for (Class<? extends Servlet> type : Servlets)
+                {
+                    WebServlet annotation = type.getAnnotation(WebServlet.class);
+                    ServletRegistration.Dynamic registration = servletContext.addServlet(annotation.name(), type);
+                    if (registration == null) continue;
+
+                    registration.addMapping(annotation.urlPatterns());
+                    registration.setAsyncSupported(annotation.asyncSupported());
+
+                    MultipartConfig multipart = type.getAnnotation(MultipartConfig.class);
+                    if (multipart != null)
+                    {
+                        registration.setMultipartConfig(new MultipartConfigElement(multipart));
+                    }
+                }
+
+                for (Class<? extends Filter> type : Filters)
+                {
+                    WebFilter annotation = type.getAnnotation(WebFilter.class);
+                    FilterRegistration.Dynamic registration = servletContext.addFilter(annotation.filterName(), type);
+                    if (registration == null) continue;
+
+                    registration.setAsyncSupported(annotation.asyncSupported());
+                    registration.addMappingForUrlPatterns(null, true, annotation.urlPatterns());
+                }
+            }
+        }, null);
+
+        tomcat.start();
+
+        //the example classes are loaded from the class path, so the executor is shared with the webapp
+        if (ioThreads != null)
+        {
+            IoExecutor.Init(ioThreads);
+        }
+    }
+
+    public String GetUrl()
+    {
+        return "http://127.0.0.1:" + tomcat.getConnector().getLocalPort() + ContextPath;
+    }
+
+    public void Stop() throws Exception
+    {
+        if (tomcat != null)
+        {
+            tomcat.stop();
+            tomcat.destroy();
+        }
+        Fixtures.Delete(base);
+    }
+
+    private static void Copy(final Path source, final Path target) throws IOException
+    {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException
+            {
+                if (dir.getFileName().toString().equals("app_data")) return FileVisitResult.SKIP_SUBTREE;
+
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                Files.copy(file, target.resolve(source.relativize(file).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    public static Path DefaultWebapp()
+    {
+        return Paths.get(System.getProperty("example.webapp", "../src/main/webapp"));
+    }
+}
@@ -0,0 +1,385 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+//end-to-end load on the example against the stub document server: every editor uploads a document, opens it,
+//edits it through the callbacks of the document server, reads its history and removes it, some also convert
+public class LoadDriver
+{
+    private static final Pattern Config = Pattern.compile("JSON\\.parse\\('(.*)'\\);");
+    private static final int MaxPolls = 50;
+
+    private final String exampleUrl;
+    private final StubDocumentServer stub;
+    private final CallbackDriver callbacks;
+    private final byte[] document;
+    private final byte[] convertible;
+    private final double convertShare;
+    private final Map<String, Operation> operations = Collections.synchronizedMap(new TreeMap<String, Operation>());
+
+    public LoadDriver(String exampleUrl, StubDocumentServer stub, double convertShare) throws IOException
+    {
+        this.exampleUrl = exampleUrl;
+        this.stub = stub;
+        this.callbacks = new CallbackDriver(stub);
+        this.document = StubDocumentServer.ReadResource("sample.docx");
+        this.convertible = "{\\rtf1\\ansi load test\\par}".getBytes("UTF-8");
+        this.convertShare = convertShare;
+    }
+
+    public void Run(int editors, int duration) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(duration);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < editors; i++)
+        {
+            final String userId = "load-" + i;
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    while (System.nanoTime() < deadline)
+                    {
+                        try
+                        {
+                            Session(userId);
+                        }
+                        catch (Exception ex)
+                        {
+                            //the failed operation is already counted, the editor starts over with a new document
+                        }
+                    }
+                }
+            }, "editor-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+    }
+
+    private void Session(String userId) throws Exception
+    {
+        boolean convert = ThreadLocalRandom.current().nextDouble() < convertShare;
+        String fileName = Upload(userId, convert);
+
+        if (convert)
+        {
+            fileName = Convert(fileName, userId);
+        }
+
+        Editor editor = Open(fileName, userId);
+
+        Track("track-editing", editor, CallbackDriver.Editing, userId);
+        Measure("files", "FilesServlet", "GET", null, null, userId);
+        Track("track-save", editor, ThreadLocalRandom.current().nextInt(4) == 0 ? CallbackDriver.ForceSave : CallbackDriver.MustSave, userId);
+        Measure("history", "HistoryServlet?fileName=" + Encode(fileName), "GET", null, null, userId);
+        Track("track-closed", editor, CallbackDriver.Closed, userId);
+
+        Measure("remove", "IndexServlet?type=remove&filename=" + Encode(fileName), "GET", null, null, userId);
+    }
+
+    String Upload(String userId, boolean convert) throws Exception
+    {
+        //all the editors share the storage folder of the loopback address, so the names are kept apart by user
+        JSONObject upload = Json(Measure("upload", "IndexServlet?type=upload", "POST",
+                userId + (convert ? ".rtf" : ".docx"), convert ? convertible : document, userId));
+        String fileName = (String) upload.get("filename");
+        if (fileName == null) throw Fail("upload", String.valueOf(upload.get("error")));
+        return fileName;
+    }
+
+    Editor Open(String fileName, String userId) throws Exception
+    {
+        String page = new String(Measure("editor", "EditorServlet?fileName=" + Encode(fileName), "GET", null, null, userId), "UTF-8");
+        Matcher matcher = Config.matcher(page);
+        if (!matcher.find()) throw Fail("editor", "no config in the editor page");
+
+        JSONObject config = (JSONObject) new JSONParser().parse(matcher.group(1));
+        JSONObject document = (JSONObject) config.get("document");
+        return new Editor((String) document.get("key"), (String) ((JSONObject) config.get("editorConfig")).get("callbackUrl"),
+                (String) document.get("fileType"));
+    }
+
+    private String Convert(String fileName, String userId) throws Exception
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < MaxPolls; i++)
+        {
+            JSONObject result = Json(Measure("convert-poll", "IndexServlet?type=convert&filename=" + Encode(fileName), "POST", null, null, userId));
+            if (result.get("error") != null) throw Fail("convert", String.valueOf(result.get("error")));
+
+            if (result.get("step") == null)
+            {
+                Get("convert").Record(System.nanoTime() - start);
+                return (String) result.get("filename");
+            }
+
+            Thread.sleep(100);
+        }
+
+        throw Fail("convert", "not finished after " + MaxPolls + " polls");
+    }
+
+    void Track(String name, Editor editor, int status, String userId) throws Exception
+    {
+        Operation operation = Get(name);
+        long start = System.nanoTime();
+        String response;
+        try
+        {
+            response = callbacks.Send(editor.callbackUrl, status, editor.key, editor.ext, userId);
+        }
+        catch (IOException ex)
+        {
+            operation.Error(ex.getMessage());
+            throw ex;
+        }
+
+        if (!response.contains("\"error\":0"))
+        {
+            throw Fail(name, response);
+        }
+        operation.Record(System.nanoTime() - start);
+    }
+
+    private byte[] Measure(String name, String path, String method, String fileName, byte[] content, String userId) throws IOException
+    {
+        Operation operation = Get(name);
+        long start = System.nanoTime();
+        HttpURLConnection connection = (HttpURLConnection) new URL(exampleUrl + "/" + path).openConnection();
+        try
+        {
+            connection.setRequestMethod(method);
+            connection.setRequestProperty("Cookie", "uid=" + userId + "; uname=" + userId);
+
+            if (content != null)
+            {
+                String boundary = "----load" + Long.toHexString(System.nanoTime());
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
+                try (OutputStream out = connection.getOutputStream())
+                {
+                    out.write(("--" + boundary + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"" + fileName
+                            + "\"\r\nContent-Type: application/octet-stream\r\n\r\n").getBytes("UTF-8"));
+                    out.write(content);
+                    out.write(("\r\n--" + boundary + "--\r\n").getBytes("UTF-8"));
+                }
+            }
+            else if ("POST".equals(method))
+            {
+                connection.setDoOutput(true);
+                connection.getOutputStream().close();
+            }
+
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK)
+            {
+                throw new IOException(name + " returned " + connection.getResponseCode());
+            }
+
+            byte[] body;
+            try (InputStream stream = connection.getInputStream())
+            {
+                body = ReadAll(stream);
+            }
+            operation.Record(System.nanoTime() - start);
+            return body;
+        }
+        catch (IOException ex)
+        {
+            operation.Error(ex.getMessage());
+            throw ex;
+        }
+    }
+
+    private JSONObject Json(byte[] body) throws Exception
+    {
+        return (JSONObject) new JSONParser().parse(new String(body, "UTF-8"));
+    }
+
+    private IOException Fail(String name, String message)
+    {
+        Get(name).Error(message);
+        return new IOException(name + ": " + message);
+    }
+
+    private Operation Get(String name)
+    {
+        synchronized (operations)
+        {
+            Operation operation = operations.get(name);
+            if (operation == null)
+            {
+                operation = new Operation();
+                operations.put(name, operation);
+            }
+            return operation;
+        }
+    }
+
+    public void Report(int duration)
+    {
+        System.out.println(String.format("%-16s %8s %7s %9s %9s %9s %9s %9s", "operation", "count", "errors", "ops/s", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        synchronized (operations)
+        {
+            for (Map.Entry<String, Operation> entry : operations.entrySet())
+            {
+                Operation operation = entry.getValue();
+                long[] latencies = operation.Snapshot();
+                System.out.println(String.format("%-16s %8d %7d %9.1f %9.2f %9.2f %9.2f %9.2f", entry.getKey(), latencies.length,
+                        operation.errors.sum(), latencies.length / (double) duration,
+                        Percentile(latencies, 0.5), Percentile(latencies, 0.9), Percentile(latencies, 0.99), Percentile(latencies, 1)));
+            }
+        }
+        System.out.println("document server requests: " + stub.GetRequests());
+
+        synchronized (operations)
+        {
+            for (Map.Entry<String, Operation> entry : operations.entrySet())
+            {
+                if (entry.getValue().lastError != null)
+                {
+                    System.out.println("last error of " + entry.getKey() + ": " + entry.getValue().lastError);
+                }
+            }
+        }
+    }
+
+    private static double Percentile(long[] sorted, double percentile)
+    {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    private static String Encode(String value) throws IOException
+    {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    private static byte[] ReadAll(InputStream stream) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = stream.read(buffer)) != -1)
+        {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    static class Editor
+    {
+        final String key;
+        final String callbackUrl;
+        final String ext;
+
+        Editor(String key, String callbackUrl, String ext)
+        {
+            this.key = key;
+            this.callbackUrl = callbackUrl;
+            this.ext = ext;
+        }
+    }
+
+    private static class Operation
+    {
+        private final List<Long> latencies = new ArrayList<Long>();
+        private final LongAdder errors = new LongAdder();
+        private volatile String lastError;
+
+        private synchronized void Record(long nanos)
+        {
+            latencies.add(nanos);
+        }
+
+        private void Error(String message)
+        {
+            errors.increment();
+            lastError = message;
+        }
+
+        private synchronized long[] Snapshot()
+        {
+            long[] result = new long[latencies.size()];
+            for (int i = 0; i < result.length; i++)
+            {
+                result[i] = latencies.get(i);
+            }
+            java.util.Arrays.sort(result);
+            return result;
+        }
+    }
+
+    //usage: LoadDriver [editors] [duration s] [convert share] [polls to finish] [error rate] [converter latency ms]
+    //the converter url of settings.properties must point to the stub, port 8100
+    public static void main(String[] args) throws Exception
+    {
+        int editors = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int duration = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        double convertShare = args.length > 2 ? Double.parseDouble(args[2]) : 0.2;
+
+        StubDocumentServer stub = new StubDocumentServer(8100,
+                args.length > 3 ? Integer.parseInt(args[3]) : 3,
+                args.length > 4 ? Double.parseDouble(args[4]) : 0,
+                args.length > 5 ? Integer.parseInt(args[5]) : 0);
+        EmbeddedExample example = new EmbeddedExample(EmbeddedExample.DefaultWebapp());
+
+        stub.Start();
+        example.Start(Integer.getInteger("example.port", 0));
+        try
+        {
+            System.out.println("Example " + example.GetUrl() + ", document server " + stub.GetUrl()
+                    + ", " + editors + " editors for " + duration + " s");
+
+            LoadDriver driver = new LoadDriver(example.GetUrl(), stub, convertShare);
+            driver.Run(editors, duration);
+            driver.Report(duration);
+        }
+        finally
+        {
+            example.Stop();
+            stub.Stop();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+//in-process stand-in for the document server: ConvertService.ashx with the async progress of a real conversion,
+//the converted, saved and changes files, and nothing else
+public class StubDocumentServer
+{
+    private static final int[] ErrorCodes = { -1, -2, -3, -4, -5, -6, -7, -8 };
+
+    private final int port;
+    private final int pollsToFinish;
+    private final double errorRate;
+    private final int latency;
+
+    private final ConcurrentHashMap<String, AtomicInteger> conversions = new ConcurrentHashMap<String, AtomicInteger>();
+    private final Map<String, byte[]> documents = new HashMap<String, byte[]>();
+    private final AtomicLong requests = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    //pollsToFinish is the number of ConvertService requests a key needs to reach endConvert,
+    //errorRate the share of them answered with one of the ConvertService error codes
+    public StubDocumentServer(int port, int pollsToFinish, double errorRate, int latency)
+    {
+        this.port = port;
+        this.pollsToFinish = Math.max(1, pollsToFinish);
+        this.errorRate = errorRate;
+        this.latency = latency;
+    }
+
+    public void Start() throws IOException
+    {
+        for (String ext : new String[] { "docx", "xlsx", "pptx" })
+        {
+            documents.put(ext, ReadResource("new." + ext));
+        }
+        documents.put("zip", ReadResource("new.docx"));
+        documents.put("pdf", StubPdf());
+        documents.put("png", StubPng());
+        documents.put("txt", "Quarterly report of the stub document server\nRevenue grew in every region\n".getBytes(StandardCharsets.UTF_8));
+        documents.put("csv", "region,revenue\nnorth,120\nsouth,95\n".getBytes(StandardCharsets.UTF_8));
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 256);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+
+        server.createContext("/ConvertService.ashx", new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                Convert(exchange);
+            }
+        });
+        server.createContext("/files/", new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                ServeFile(exchange);
+            }
+        });
+
+        server.start();
+    }
+
+    public void Stop()
+    {
+        if (server != null) server.stop(0);
+        if (executor != null) executor.shutdownNow();
+    }
+
+    public String GetUrl()
+    {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    //a document of the type of the extension, as the document server serves a saved or converted file
+    public String GetFileUrl(String key, String ext)
+    {
+        return GetUrl() + "/files/" + key + "." + ext;
+    }
+
+    public long GetRequests()
+    {
+        return requests.get();
+    }
+
+    private void Convert(HttpExchange exchange) throws IOException
+    {
+        requests.incrementAndGet();
+        Delay();
+
+        JSONObject result = new JSONObject();
+        try
+        {
+            JSONObject body = (JSONObject) new JSONParser().parse(new String(ReadAll(exchange.getRequestBody()), StandardCharsets.UTF_8));
+            String key = (String) body.get("key");
+            String outputType = (String) body.get("outputtype");
+            boolean async = Boolean.TRUE.equals(body.get("async"));
+
+            if (key == null || outputType == null || body.get("url") == null)
+            {
+                result.put("error", -7);
+            }
+            else if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate)
+            {
+                result.put("error", ErrorCodes[ThreadLocalRandom.current().nextInt(ErrorCodes.length)]);
+            }
+            else
+            {
+                AtomicInteger polls = conversions.get(key);
+                if (polls == null)
+                {
+                    AtomicInteger created = new AtomicInteger();
+                    polls = conversions.putIfAbsent(key, created);
+                    if (polls == null)
+                    {
+                        polls = created;
+                        //the first request of a key downloads the source, as the real converter does
+                        Download((String) body.get("url"));
+                    }
+                }
+
+                int poll = async ? polls.incrementAndGet() : pollsToFinish;
+                if (poll >= pollsToFinish)
+                {
+                    conversions.remove(key);
+                    result.put("endConvert", true);
+                    result.put("percent", 100L);
+                    result.put("fileUrl", GetFileUrl(key, outputType));
+                }
+                else
+                {
+                    result.put("endConvert", false);
+                    result.put("percent", (long) (100 * poll / pollsToFinish));
+                }
+            }
+        }
+        catch (Exception ex)
+        {
+            result.put("error", -1);
+        }
+
+        Send(exchange, 200, "application/json", result.toJSONString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void ServeFile(HttpExchange exchange) throws IOException
+    {
+        requests.incrementAndGet();
+        Delay();
+
+        String path = exchange.getRequestURI().getPath();
+        String ext = path.substring(path.lastIndexOf('.') + 1);
+        byte[] document = documents.get(ext);
+
+        if (document == null)
+        {
+            Send(exchange, 404, "text/plain", new byte[0]);
+            return;
+        }
+
+        //a single range is enough to exercise the passthrough of partial downloads
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.matches("bytes=\\d+-\\d*"))
+        {
+            int dash = range.indexOf('-');
+            int first = Integer.parseInt(range.substring(6, dash));
+            int last = dash == range.length() - 1 ? document.length - 1 : Math.min(document.length - 1, Integer.parseInt(range.substring(dash + 1)));
+            if (first > last)
+            {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + document.length);
+                Send(exchange, 416, "text/plain", new byte[0]);
+                return;
+            }
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + last + "/" + document.length);
+            Send(exchange, 206, "application/octet-stream", Arrays.copyOfRange(document, first, last + 1));
+            return;
+        }
+
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        Send(exchange, 200, "application/octet-stream", document);
+    }
+
+    //a blank page the size of a thumbnail, as the converter returns for the first page of a document
+    private static byte[] StubPng() throws IOException
+    {
+        BufferedImage image = new BufferedImage(96, 128, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.dispose();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    //the converter output for a pdf is only checked for its size and range handling, a padded header will do
+    private static byte[] StubPdf()
+    {
+        StringBuilder pdf = new StringBuilder("%PDF-1.4\n");
+        while (pdf.length() < 64 * 1024)
+        {
+            pdf.append("% stub document server output\n");
+        }
+        return pdf.append("%%EOF\n").toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private void Delay()
+    {
+        if (latency <= 0) return;
+
+        try
+        {
+            Thread.sleep(latency);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void Download(String url) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try (InputStream stream = connection.getInputStream())
+        {
+            ReadAll(stream);
+        }
+        finally
+        {
+            connection.disconnect();
+        }
+    }
+
+    private static void Send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException
+    {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(body);
+        }
+    }
+
+    static byte[] ReadAll(InputStream stream) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = stream.read(buffer)) != -1)
+        {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] ReadResource(String name) throws IOException
+    {
+        try (InputStream stream = StubDocumentServer.class.getClassLoader().getResourceAsStream(name))
+        {
+            if (stream == null) throw new IOException("resource " + name + " is not found");
+            return ReadAll(stream);
+        }
+    }
+
+    //usage: StubDocumentServer [port] [polls to finish] [error rate] [latency ms]
+    public static void main(String[] args) throws Exception
+    {
+        StubDocumentServer stub = new StubDocumentServer(
+                args.length > 0 ? Integer.parseInt(args[0]) : 8100,
+                args.length > 1 ? Integer.parseInt(args[1]) : 3,
+                args.length > 2 ? Double.parseDouble(args[2]) : 0,
+                args.length > 3 ? Integer.parseInt(args[3]) : 0);
+        stub.Start();
+        System.out.println("Stub document server is listening on " + stub.GetUrl());
+    }
+}
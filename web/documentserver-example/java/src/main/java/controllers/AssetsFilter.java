@@ -0,0 +1,161 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package controllers;
+
+import helpers.StaticAssets;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+//serves the fingerprinted assets with far-future caching and the precompressed variant the client accepts
+@WebFilter(filterName = "AssetsFilter", urlPatterns = {"/scripts/*", "/css/*"})
+public class AssetsFilter implements Filter
+{
+    private ServletContext servletContext;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException
+    {
+        servletContext = filterConfig.getServletContext();
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain) throws IOException, ServletException
+    {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) resp;
+
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        StaticAssets.Asset asset = StaticAssets.Get(path.startsWith("/") ? path.substring(1) : path);
+
+        if (asset == null || !"GET".equals(request.getMethod()) && !"HEAD".equals(request.getMethod()))
+        {
+            chain.doFilter(req, resp);
+            return;
+        }
+
+        //the name changes with the content, so the response never has to be revalidated
+        response.setHeader("Cache-Control", "public, max-age=31536000, immutable");
+        response.setHeader("Vary", "Accept-Encoding");
+        if (request.getHeader("If-Modified-Since") != null || request.getHeader("If-None-Match") != null)
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        String encoding = null;
+        for (String accepted : asset.encodings)
+        {
+            if (Accepts(request.getHeader("Accept-Encoding"), accepted))
+            {
+                encoding = accepted;
+                break;
+            }
+        }
+
+        String file = "/" + asset.path + (encoding == null ? "" : "br".equals(encoding) ? ".br" : ".gz");
+        URL resource = servletContext.getResource(file);
+        if (resource == null)
+        {
+            chain.doFilter(req, resp);
+            return;
+        }
+
+        URLConnection connection = resource.openConnection();
+        String mimeType = servletContext.getMimeType(asset.source);
+        response.setContentType(mimeType == null ? "application/octet-stream" : mimeType);
+        if (mimeType != null && (mimeType.startsWith("text/") || mimeType.endsWith("javascript")))
+        {
+            response.setCharacterEncoding("UTF-8");
+        }
+        if (encoding != null)
+        {
+            response.setHeader("Content-Encoding", encoding);
+        }
+        response.setHeader("ETag", "\"" + asset.path + (encoding == null ? "" : "-" + encoding) + "\"");
+
+        long length = connection.getContentLengthLong();
+        if (length >= 0)
+        {
+            response.setContentLengthLong(length);
+        }
+
+        try (InputStream stream = connection.getInputStream())
+        {
+            if ("HEAD".equals(request.getMethod())) return;
+
+            OutputStream out = response.getOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = stream.read(buffer)) != -1)
+            {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private static boolean Accepts(String acceptEncoding, String encoding)
+    {
+        if (acceptEncoding == null) return false;
+
+        for (String part : acceptEncoding.split(","))
+        {
+            String[] params = part.trim().split(";");
+            if (!params[0].trim().equalsIgnoreCase(encoding)) continue;
+
+            for (int i = 1; i < params.length; i++)
+            {
+                String param = params[i].trim();
+                if (param.startsWith("q="))
+                {
+                    try
+                    {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    }
+                    catch (NumberFormatException ex)
+                    {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public void destroy()
+    {
+    }
+}
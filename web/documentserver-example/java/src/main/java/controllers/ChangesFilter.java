@@ -0,0 +1,75 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package controllers;
+
+import helpers.ConfigManager;
+import helpers.HistoryManager;
+import java.io.File;
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+
+
+//the changes archive of a version is fetched from the document server in the background,
+//one that is requested before it is there is fetched right away and then served from the storage
+@WebFilter(filterName = "ChangesFilter", urlPatterns = {"*.zip"})
+public class ChangesFilter implements Filter
+{
+    private ServletContext servletContext;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException
+    {
+        servletContext = filterConfig.getServletContext();
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain) throws IOException, ServletException
+    {
+        HttpServletRequest request = (HttpServletRequest) req;
+
+        String path = request.getServletPath() + (request.getPathInfo() == null ? "" : request.getPathInfo());
+        String prefix = "/" + ConfigManager.Get().storageFolder + "/";
+
+        if (path.startsWith(prefix) && path.contains("-hist/") && path.endsWith("/diff.zip") && !path.contains(".."))
+        {
+            File changes = new File(servletContext.getRealPath("") + ConfigManager.Get().storageFolder + File.separator
+                    + path.substring(prefix.length()).replace("/", File.separator));
+            if (!changes.exists())
+            {
+                HistoryManager.FetchChanges(changes.getParent());
+            }
+        }
+
+        chain.doFilter(req, resp);
+    }
+
+    @Override
+    public void destroy()
+    {
+    }
+}
@@ -0,0 +1,497 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package controllers;
+
+import helpers.ConfigManager;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+
+//gzip for the generated pages and json, the documents themselves are already compressed formats and are left alone
+@WebFilter(filterName = "CompressionFilter", urlPatterns = {"/*"}, asyncSupported = true)
+public class CompressionFilter implements Filter
+{
+    private static final byte[] GzipHeader = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private static final ArrayBlockingQueue<Deflater> Deflaters = new ArrayBlockingQueue<Deflater>(32);
+
+    private static final ThreadMXBean Threads = ManagementFactory.getThreadMXBean();
+
+    private static final LongAdder Responses = new LongAdder();
+    private static final LongAdder BytesIn = new LongAdder();
+    private static final LongAdder BytesOut = new LongAdder();
+    private static final LongAdder CpuNanos = new LongAdder();
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException
+    {
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain) throws IOException, ServletException
+    {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) resp;
+
+        //a range is a slice of the uncompressed body, compressing it would break the offsets
+        if (!AcceptsGzip(request.getHeader("Accept-Encoding")) || request.getHeader("Range") != null || "HEAD".equals(request.getMethod()))
+        {
+            chain.doFilter(req, resp);
+            return;
+        }
+
+        CompressionResponse wrapper = new CompressionResponse(response);
+        chain.doFilter(request, wrapper);
+
+        //an async response is finished by its servlet closing the output, the event streams are never compressed anyway
+        if (!request.isAsyncStarted())
+        {
+            wrapper.Finish();
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+        Deflater deflater;
+        while ((deflater = Deflaters.poll()) != null)
+        {
+            deflater.end();
+        }
+    }
+
+    public static long GetResponses()
+    {
+        return Responses.sum();
+    }
+
+    public static long GetBytesIn()
+    {
+        return BytesIn.sum();
+    }
+
+    public static long GetBytesOut()
+    {
+        return BytesOut.sum();
+    }
+
+    public static long GetCpuNanos()
+    {
+        return CpuNanos.sum();
+    }
+
+    public static double GetRatio()
+    {
+        long in = BytesIn.sum();
+        return in == 0 ? 1 : (double) BytesOut.sum() / in;
+    }
+
+    private static boolean AcceptsGzip(String acceptEncoding)
+    {
+        if (acceptEncoding == null) return false;
+
+        for (String part : acceptEncoding.split(","))
+        {
+            String[] params = part.trim().split(";");
+            if (params[0].trim().equalsIgnoreCase("gzip"))
+            {
+                return params.length < 2 || !params[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private static boolean IsCompressible(String contentType)
+    {
+        if (contentType == null) return false;
+
+        String type = contentType.toLowerCase();
+        int semicolon = type.indexOf(';');
+        if (semicolon >= 0) type = type.substring(0, semicolon).trim();
+
+        return type.equals("text/html") || type.equals("application/json") || type.endsWith("+json");
+    }
+
+    private static Deflater TakeDeflater()
+    {
+        Deflater deflater = Deflaters.poll();
+        return deflater != null ? deflater : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+
+    private static void ReturnDeflater(Deflater deflater)
+    {
+        deflater.reset();
+        if (!Deflaters.offer(deflater))
+        {
+            deflater.end();
+        }
+    }
+
+    private static class CompressionResponse extends HttpServletResponseWrapper
+    {
+        private final HttpServletResponse response;
+        private CompressionStream stream;
+        private PrintWriter writer;
+        private long contentLength = -1;
+
+        private CompressionResponse(HttpServletResponse response)
+        {
+            super(response);
+            this.response = response;
+        }
+
+        //the length is only known for the uncompressed body, so it is passed on once the body is not compressed
+        @Override
+        public void setContentLength(int len)
+        {
+            setContentLengthLong(len);
+        }
+
+        @Override
+        public void setContentLengthLong(long len)
+        {
+            if (stream != null && stream.decided)
+            {
+                if (!stream.compressing) super.setContentLengthLong(len);
+            }
+            else
+            {
+                contentLength = len;
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException
+        {
+            if (writer != null) throw new IllegalStateException("getWriter() has already been called");
+
+            if (stream == null) stream = new CompressionStream(this);
+            return stream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException
+        {
+            if (writer != null) return writer;
+            if (stream != null) throw new IllegalStateException("getOutputStream() has already been called");
+
+            stream = new CompressionStream(this);
+            writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException
+        {
+            if (writer != null) writer.flush();
+            if (stream != null)
+            {
+                stream.flush();
+            }
+            else
+            {
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public void resetBuffer()
+        {
+            super.resetBuffer();
+            if (stream != null) stream.Reset();
+        }
+
+        @Override
+        public void reset()
+        {
+            super.reset();
+            if (stream != null) stream.Reset();
+        }
+
+        private void Finish() throws IOException
+        {
+            if (writer != null) writer.flush();
+            if (stream != null)
+            {
+                stream.close();
+            }
+            else if (contentLength >= 0)
+            {
+                response.setContentLengthLong(contentLength);
+            }
+        }
+    }
+
+    private static class CompressionStream extends ServletOutputStream
+    {
+        private final CompressionResponse wrapper;
+        private final HttpServletResponse response;
+        private final int threshold;
+
+        private byte[] buffer;
+        private int count;
+
+        private Deflater deflater;
+        private final CRC32 crc = new CRC32();
+        private byte[] output;
+        private long bytesIn;
+        private long bytesOut;
+
+        private boolean compressing;
+        private boolean decided;
+        private boolean closed;
+
+        private CompressionStream(CompressionResponse wrapper)
+        {
+            this.wrapper = wrapper;
+            this.response = wrapper.response;
+            this.threshold = ConfigManager.Get().compressionMinSize;
+            this.buffer = new byte[Math.max(threshold, 1)];
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            if (closed) throw new IOException("stream is closed");
+            if (len == 0) return;
+
+            //the body is held back until it is clear that it is large enough to be worth compressing
+            if (!decided)
+            {
+                if (count + len <= buffer.length)
+                {
+                    System.arraycopy(b, off, buffer, count, len);
+                    count += len;
+                    return;
+                }
+
+                Decide(true);
+            }
+
+            if (compressing)
+            {
+                Deflate(b, off, len);
+            }
+            else
+            {
+                response.getOutputStream().write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            if (closed) return;
+
+            if (!decided)
+            {
+                Decide(false);
+            }
+
+            if (compressing)
+            {
+                long start = Threads.getCurrentThreadCpuTime();
+                int written;
+                do
+                {
+                    written = deflater.deflate(output, 0, output.length, Deflater.SYNC_FLUSH);
+                    WriteOutput(written);
+                }
+                while (written == output.length);
+                CpuNanos.add(Threads.getCurrentThreadCpuTime() - start);
+            }
+
+            response.getOutputStream().flush();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (closed) return;
+
+            if (!decided)
+            {
+                Decide(false);
+            }
+
+            closed = true;
+
+            if (compressing)
+            {
+                try
+                {
+                    long start = Threads.getCurrentThreadCpuTime();
+                    deflater.finish();
+                    while (!deflater.finished())
+                    {
+                        WriteOutput(deflater.deflate(output, 0, output.length));
+                    }
+                    CpuNanos.add(Threads.getCurrentThreadCpuTime() - start);
+
+                    byte[] trailer = new byte[8];
+                    WriteInt(trailer, 0, crc.getValue());
+                    WriteInt(trailer, 4, bytesIn);
+                    response.getOutputStream().write(trailer);
+                    bytesOut += trailer.length;
+
+                    Responses.increment();
+                    BytesIn.add(bytesIn);
+                    BytesOut.add(bytesOut);
+                }
+                finally
+                {
+                    ReturnDeflater(deflater);
+                    deflater = null;
+                }
+            }
+
+            response.getOutputStream().close();
+        }
+
+        private void Reset()
+        {
+            if (!decided) count = 0;
+        }
+
+        private void Decide(boolean large) throws IOException
+        {
+            decided = true;
+
+            String status = Integer.toString(response.getStatus());
+            compressing = large
+                    && IsCompressible(response.getContentType())
+                    && response.getHeader("Content-Encoding") == null
+                    && response.getHeader("Content-Range") == null
+                    && !status.equals("206") && !status.equals("204") && !status.equals("304");
+
+            if (compressing)
+            {
+                response.setHeader("Content-Encoding", "gzip");
+                response.addHeader("Vary", "Accept-Encoding");
+
+                deflater = TakeDeflater();
+                output = new byte[8192];
+                response.getOutputStream().write(GzipHeader);
+                bytesOut += GzipHeader.length;
+
+                Deflate(buffer, 0, count);
+            }
+            else
+            {
+                if (wrapper.contentLength >= 0) response.setContentLengthLong(wrapper.contentLength);
+                if (count > 0) response.getOutputStream().write(buffer, 0, count);
+            }
+
+            buffer = null;
+        }
+
+        private void Deflate(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0) return;
+
+            long start = Threads.getCurrentThreadCpuTime();
+            crc.update(b, off, len);
+            bytesIn += len;
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput())
+            {
+                WriteOutput(deflater.deflate(output, 0, output.length, Deflater.NO_FLUSH));
+            }
+            CpuNanos.add(Threads.getCurrentThreadCpuTime() - start);
+        }
+
+        private void WriteOutput(int len) throws IOException
+        {
+            if (len > 0)
+            {
+                response.getOutputStream().write(output, 0, len);
+                bytesOut += len;
+            }
+        }
+
+        private static void WriteInt(byte[] bytes, int offset, long value)
+        {
+            bytes[offset] = (byte) value;
+            bytes[offset + 1] = (byte) (value >> 8);
+            bytes[offset + 2] = (byte) (value >> 16);
+            bytes[offset + 3] = (byte) (value >> 24);
+        }
+
+        @Override
+        public boolean isReady()
+        {
+            if (compressing || !decided) return true;
+
+            try
+            {
+                return response.getOutputStream().isReady();
+            }
+            catch (IOException ex)
+            {
+                return false;
+            }
+        }
+
+        //non-blocking output goes to the container as it is, the deflater only works with blocking writes
+        @Override
+        public void setWriteListener(WriteListener writeListener)
+        {
+            try
+            {
+                if (!decided)
+                {
+                    Decide(false);
+                }
+                if (compressing) throw new IllegalStateException("the response is already compressed");
+
+                response.getOutputStream().setWriteListener(writeListener);
+            }
+            catch (IOException ex)
+            {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+}
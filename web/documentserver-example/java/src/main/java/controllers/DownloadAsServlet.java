@@ -0,0 +1,292 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package controllers;
+
+import helpers.Bulkhead;
+import helpers.ConfigManager;
+import helpers.DocumentContext;
+import helpers.DocumentManager;
+import helpers.DownloadCache;
+import helpers.FileUtility;
+import helpers.Metrics;
+import helpers.RateLimiter;
+import helpers.ServiceConverter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+//converts a document to the requested format and streams the result of the converter to the client, nothing is
+//written to the storage, the result is only kept in memory by DownloadCache when it is small enough.
+//a conversion waits on the threads and the limits of the "convert" action of IndexServlet, a cached result does not
+@WebServlet(name = "DownloadAsServlet", urlPatterns = {"/DownloadAsServlet"}, asyncSupported = true)
+public class DownloadAsServlet extends HttpServlet
+{
+    private static final Pattern Format = Pattern.compile("[a-z0-9]{1,10}");
+    private static final Pattern ByteRange = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    private Bulkhead conversions;
+    private RateLimiter convertRequests;
+
+    @Override
+    public void init() throws ServletException
+    {
+        conversions = IndexServlet.Conversions();
+        convertRequests = IndexServlet.ConvertRequests();
+    }
+
+    //true when the conversion was handed to the bulkhead, which accounts the request when it is done
+    protected boolean processRequest(HttpServletRequest request, HttpServletResponse response, long start) throws ServletException, IOException
+    {
+        DocumentContext context = DocumentManager.Init(request, response);
+
+        final String fileName = request.getParameter("fileName");
+        String param = request.getParameter("format");
+        final String format = param == null ? "" : param.trim().toLowerCase();
+
+        File file = fileName == null || fileName.isEmpty() ? null : new File(DocumentManager.StoragePath(context, fileName, null));
+        if (file == null || !file.getName().equals(fileName) || !file.isFile())
+        {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return false;
+        }
+        if (!Format.matcher(format).matches())
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown format " + format);
+            return false;
+        }
+
+        final String key = DownloadCache.GetKey(context, fileName, format);
+        String etag = "\"" + key + "\"";
+        String title = FileUtility.GetFileNameWithoutExtension(fileName) + "." + format;
+
+        //a range is only honoured for the same result, otherwise the client gets the whole new one
+        String range = request.getHeader("Range");
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null && !ifRange.equals(etag)) range = null;
+
+        response.setHeader("ETag", etag);
+        response.setHeader("Content-Disposition", "attachment; filename*=UTF-8''" + URLEncoder.encode(title, "UTF-8").replace("+", "%20"));
+
+        DownloadCache.Entry cached = DownloadCache.Get(key);
+        if (cached != null)
+        {
+            Metrics.DownloadCacheHits.Increment();
+            WriteCached(cached, range, response);
+            return false;
+        }
+        Metrics.DownloadCacheMisses.Increment();
+
+        if (IndexServlet.Throttle(convertRequests, 1, request, response, null)) return false;
+
+        final String resultRange = range;
+        return IndexServlet.Dispatch(conversions, new IndexServlet.BlockingAction()
+        {
+            @Override
+            public void Run(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+            {
+                try
+                {
+                    Convert(context, fileName, format, key, resultRange, response);
+                }
+                catch (IOException ex)
+                {
+                    //the client has gone away or the converter broke off, the response is as far as it got
+                }
+            }
+        }, context, request, response, null, Metrics.DownloadAsTime, start);
+    }
+
+    private static void Convert(DocumentContext context, String fileName, String format, String key, String range, HttpServletResponse response) throws IOException
+    {
+        String resultUri;
+        try
+        {
+            String fileUri = DocumentManager.GetFileUri(context, fileName);
+            //the converter takes 20 characters of a key, 80 bits of the digest instead of a hash of it
+            String revisionId = key.substring(0, 20);
+            long deadline = System.currentTimeMillis() + ConfigManager.Get().timeout;
+
+            while ((resultUri = ServiceConverter.GetConvertedUri(fileUri, FileUtility.GetFileExtension(fileName), "." + format, revisionId, true)).isEmpty())
+            {
+                if (System.currentTimeMillis() > deadline)
+                {
+                    response.sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT, "Conversion timeout");
+                    return;
+                }
+                Thread.sleep(1000);
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        catch (Exception ex)
+        {
+            response.sendError(HttpServletResponse.SC_BAD_GATEWAY, ex.getMessage());
+            return;
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(resultUri).openConnection();
+        connection.setConnectTimeout(ConfigManager.Get().timeout);
+        if (range != null) connection.setRequestProperty("Range", range);
+
+        try
+        {
+            int status = connection.getResponseCode();
+            if (status == HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE)
+            {
+                String contentRange = connection.getHeaderField("Content-Range");
+                if (contentRange != null) response.setHeader("Content-Range", contentRange);
+                response.sendError(status);
+                return;
+            }
+            if (status != HttpServletResponse.SC_OK && status != HttpServletResponse.SC_PARTIAL_CONTENT)
+            {
+                response.sendError(HttpServletResponse.SC_BAD_GATEWAY, "Converter responded " + status);
+                return;
+            }
+
+            //the headers of the converter go through, so the client sees the real length and can resume
+            long length = connection.getContentLengthLong();
+            String contentType = connection.getContentType();
+            response.setStatus(status);
+            response.setContentType(contentType != null ? contentType : "application/octet-stream");
+            if (length >= 0) response.setContentLengthLong(length);
+            if (status == HttpServletResponse.SC_PARTIAL_CONTENT) response.setHeader("Content-Range", connection.getHeaderField("Content-Range"));
+            String acceptRanges = connection.getHeaderField("Accept-Ranges");
+            if (acceptRanges != null) response.setHeader("Accept-Ranges", acceptRanges);
+
+            //only a whole result of a known, small size is kept, it is copied while it goes to the client
+            ByteArrayOutputStream copy = status == HttpServletResponse.SC_OK && length >= 0 && length <= DownloadCache.GetMaxEntrySize()
+                    ? new ByteArrayOutputStream((int) length) : null;
+
+            long written = 0;
+            try (InputStream stream = connection.getInputStream())
+            {
+                OutputStream out = response.getOutputStream();
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = stream.read(buffer)) != -1)
+                {
+                    out.write(buffer, 0, read);
+                    if (copy != null) copy.write(buffer, 0, read);
+                    written += read;
+                }
+            }
+
+            if (copy != null && written == length)
+            {
+                DownloadCache.Put(key, new DownloadCache.Entry(response.getContentType(), copy.toByteArray()));
+            }
+        }
+        finally
+        {
+            connection.disconnect();
+        }
+    }
+
+    //a single range of the cached result, several ranges are answered with the whole content as http allows
+    private static void WriteCached(DownloadCache.Entry entry, String range, HttpServletResponse response) throws IOException
+    {
+        long length = entry.data.length;
+        long first = 0;
+        long last = length - 1;
+
+        Matcher matcher = range == null ? null : ByteRange.matcher(range.trim());
+        if (matcher != null && matcher.matches() && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty()))
+        {
+            try
+            {
+                if (matcher.group(1).isEmpty())
+                {
+                    first = Math.max(0, length - Long.parseLong(matcher.group(2)));
+                }
+                else
+                {
+                    first = Long.parseLong(matcher.group(1));
+                    if (!matcher.group(2).isEmpty()) last = Math.min(last, Long.parseLong(matcher.group(2)));
+                }
+            }
+            catch (NumberFormatException ex)
+            {
+                first = length;
+            }
+
+            if (first >= length || first > last)
+            {
+                response.setHeader("Content-Range", "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + first + "-" + last + "/" + length);
+        }
+
+        response.setContentType(entry.contentType);
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setContentLengthLong(last - first + 1);
+        response.getOutputStream().write(entry.data, (int) first, (int) (last - first + 1));
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        long start = System.nanoTime();
+        Metrics.ActiveRequests.Increment();
+        boolean dispatched = false;
+        try
+        {
+            dispatched = processRequest(request, response, start);
+        }
+        finally
+        {
+            //a dispatched request is accounted by its task when it completes
+            if (!dispatched)
+            {
+                Metrics.ActiveRequests.Decrement();
+                Metrics.DownloadAsTime.RecordSince(start);
+            }
+        }
+    }
+
+    @Override
+    public String getServletInfo()
+    {
+        return "Download as another format";
+    }
+}
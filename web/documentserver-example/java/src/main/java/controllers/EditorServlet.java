@@ -20,9 +20,13 @@ package controllers;
 
 import helpers.ConfigManager;
 import helpers.CookieManager;
+import helpers.DocumentContext;
 import helpers.DocumentManager;
+import helpers.Metrics;
+import helpers.EditorCache;
 import java.io.IOException;
 import java.net.URLEncoder;
+import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -37,7 +41,7 @@ public class EditorServlet extends HttpServlet
 {
     protected void processRequest(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
     {
-        DocumentManager.Init(request, response);
+        DocumentContext context = DocumentManager.Init(request, response);
 
         String fileName = request.getParameter("fileName");
         String fileExt = request.getParameter("fileExt");
@@ -51,7 +55,7 @@ public class EditorServlet extends HttpServlet
         {
             try
             {
-                fileName = DocumentManager.CreateDemo(fileExt, sampleData, cm.getCookie("uid"), cm.getCookie("uname"));
+                fileName = DocumentManager.CreateDemo(context, fileExt, sampleData, cm.getCookie("uid"), cm.getCookie("uname"));
                 response.sendRedirect("EditorServlet?fileName=" + URLEncoder.encode(fileName, "UTF-8"));
                 return;
             }
@@ -61,29 +65,72 @@ public class EditorServlet extends HttpServlet
             }
         }
 
-        FileModel file = new FileModel(fileName, cm.getCookie("ulang"), cm.getCookie("uid"), cm.getCookie("uname"), request.getParameter("actionLink"));
-        file.changeType(request.getParameter("mode"), request.getParameter("type"));
+        if (fileName == null) fileName = "";
+        fileName = fileName.trim();
 
-        if (DocumentManager.TokenEnabled())
+        String mode = request.getParameter("mode");
+        String type = request.getParameter("type");
+        String actionLink = request.getParameter("actionLink");
+
+        String variant = EditorCache.GetVariant(context, mode, type, cm.getCookie("ulang"), cm.getCookie("uid"), cm.getCookie("uname"));
+        Map<String, EditorCache.Entry> variants = EditorCache.GetDocument(context.GetHostAddress(), fileName);
+        String key = DocumentManager.GetDocumentKey(context, fileName, null);
+        EditorCache.Entry entry = actionLink == null ? variants.get(variant) : null;
+        if (entry != null && !entry.key.equals(key)) entry = null;
+
+        if (entry == null)
         {
-            file.BuildToken();
+            FileModel file = new FileModel(context, fileName, cm.getCookie("ulang"), cm.getCookie("uid"), cm.getCookie("uname"), actionLink);
+            file.changeType(mode, type);
+
+            if (DocumentManager.TokenEnabled())
+            {
+                file.BuildToken();
+            }
+
+            entry = new EditorCache.Entry(key, FileModel.Serialize(file), file.HasHistory());
+            if (actionLink == null)
+            {
+                EditorCache.Put(context.GetHostAddress(), fileName, variants, variant, entry);
+            }
         }
 
-        request.setAttribute("file", file);
-        request.setAttribute("docserviceApiUrl", ConfigManager.GetProperty("files.docservice.url.api"));
+        request.setAttribute("config", entry.config);
+        request.setAttribute("hasHistory", entry.hasHistory);
+        request.setAttribute("docserviceApiUrl", ConfigManager.Get().apiUrl);
         request.getRequestDispatcher("editor.jsp").forward(request, response);
     }
 
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
     {
-        processRequest(request, response);
+        long start = System.nanoTime();
+        Metrics.ActiveRequests.Increment();
+        try
+        {
+            processRequest(request, response);
+        }
+        finally
+        {
+            Metrics.ActiveRequests.Decrement();
+            Metrics.EditorTime.RecordSince(start);
+        }
     }
 
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
     {
-        processRequest(request, response);
+        long start = System.nanoTime();
+        Metrics.ActiveRequests.Increment();
+        try
+        {
+            processRequest(request, response);
+        }
+        finally
+        {
+            Metrics.ActiveRequests.Decrement();
+            Metrics.EditorTime.RecordSince(start);
+        }
     }
 
     @Override
@@ -0,0 +1,279 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package controllers;
+
+import helpers.DocumentContext;
+import helpers.DocumentManager;
+import helpers.StorageEvents;
+import helpers.StorageIndex;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+@WebServlet(name = "EventsServlet", urlPatterns = {"/EventsServlet"}, asyncSupported = true)
+public class EventsServlet extends HttpServlet
+{
+    private static final long StreamTimeout = 10 * 60 * 1000;
+    private static final long HeartbeatInterval = 20;
+    //a client that takes nothing for this long or lets this many messages pile up is dropped, it reconnects
+    //on its own and catches up with the token
+    private static final long StallTimeout = TimeUnit.SECONDS.toMillis(60);
+    private static final int MaxQueued = 256;
+
+    private static final Set<Connection> Connections = ConcurrentHashMap.newKeySet();
+
+    private static final ThreadFactory Threads = new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "storage-events");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    //the streams are written without blocking, so no thread is held by a client that does not read
+    private static final ScheduledExecutorService Heartbeat = Executors.newSingleThreadScheduledExecutor(Threads);
+
+    static
+    {
+        //a comment line keeps proxies from closing the stream and reveals the disconnected clients
+        Heartbeat.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                long now = System.currentTimeMillis();
+                for (Connection connection : Connections)
+                {
+                    if (connection.IsStalled(now)) connection.Close(true);
+                    else connection.Send(":\n\n");
+                }
+            }
+        }, HeartbeatInterval, HeartbeatInterval, TimeUnit.SECONDS);
+    }
+
+    protected void processRequest(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        DocumentContext context = DocumentManager.Init(request, response);
+        String filesRoot = context.GetFilesRoot();
+
+        //the directory has to be indexed for the changes to be published
+        StorageIndex.Directory directory = StorageIndex.Get(filesRoot);
+
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("X-Accel-Buffering", "no");
+
+        AsyncContext async = request.startAsync();
+        async.setTimeout(StreamTimeout);
+
+        Connection connection = new Connection(async, response.getOutputStream(), filesRoot);
+        async.addListener(connection);
+        response.getOutputStream().setWriteListener(connection);
+        Connections.add(connection);
+        StorageEvents.Subscribe(filesRoot, connection);
+
+        //the client compares the token with its own to catch up on the changes made while it was disconnected
+        connection.Send("retry: 5000\n\n");
+        connection.OnEvent("token", directory.GetToken());
+    }
+
+    private static class Connection implements StorageEvents.Listener, AsyncListener, WriteListener
+    {
+        private final AsyncContext async;
+        private final ServletOutputStream out;
+        private final String filesRoot;
+
+        private final ConcurrentLinkedQueue<byte[]> queue = new ConcurrentLinkedQueue<byte[]>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile long lastWritten = System.currentTimeMillis();
+        private boolean unflushed;
+
+        private Connection(AsyncContext async, ServletOutputStream out, String filesRoot)
+        {
+            this.async = async;
+            this.out = out;
+            this.filesRoot = filesRoot;
+        }
+
+        @Override
+        public void OnEvent(String event, String data)
+        {
+            Send("event: " + event + "\ndata: " + data + "\n\n");
+        }
+
+        private void Send(String message)
+        {
+            if (closed.get()) return;
+
+            if (queued.incrementAndGet() > MaxQueued)
+            {
+                Close(true);
+                return;
+            }
+            queue.add(message.getBytes(StandardCharsets.UTF_8));
+            Drain();
+        }
+
+        private boolean IsStalled(long now)
+        {
+            return queued.get() > 0 && now - lastWritten > StallTimeout;
+        }
+
+        //writes what the stream takes without blocking, the container calls onWritePossible for the rest.
+        //one thread drains at a time, so the events keep their order, and no sender waits for another
+        private void Drain()
+        {
+            while (!closed.get() && draining.compareAndSet(false, true))
+            {
+                boolean written;
+                try
+                {
+                    written = Write();
+                }
+                catch (IOException | IllegalStateException ex)
+                {
+                    written = false;
+                    Close(true);
+                }
+                finally
+                {
+                    draining.set(false);
+                }
+
+                //a message queued while the stream was drained by this thread is written by it as well
+                if (!written || queue.isEmpty()) return;
+            }
+        }
+
+        //true when the queue is written and flushed, false when the stream takes nothing more for now
+        private boolean Write() throws IOException
+        {
+            while (out.isReady())
+            {
+                byte[] message = queue.poll();
+                if (message == null)
+                {
+                    if (!unflushed) return true;
+                    unflushed = false;
+                    out.flush();
+                    continue;
+                }
+
+                queued.decrementAndGet();
+                out.write(message);
+                unflushed = true;
+                lastWritten = System.currentTimeMillis();
+            }
+            return false;
+        }
+
+        @Override
+        public void onWritePossible()
+        {
+            Drain();
+        }
+
+        @Override
+        public void onError(Throwable throwable)
+        {
+            Close(true);
+        }
+
+        private void Close(boolean complete)
+        {
+            if (!closed.compareAndSet(false, true)) return;
+
+            StorageEvents.Unsubscribe(filesRoot, this);
+            Connections.remove(this);
+            queue.clear();
+
+            if (complete)
+            {
+                try
+                {
+                    async.complete();
+                }
+                catch (Exception ex)
+                {
+                }
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event)
+        {
+            Close(false);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event)
+        {
+            Close(true);
+        }
+
+        @Override
+        public void onError(AsyncEvent event)
+        {
+            Close(true);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event)
+        {
+        }
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        processRequest(request, response);
+    }
+
+    @Override
+    public String getServletInfo()
+    {
+        return "Storage events";
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package controllers;
+
+import helpers.DocumentContext;
+import helpers.DocumentManager;
+import helpers.HistoryManager;
+import helpers.Metrics;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+//streams the selected documents, or all of them, as a zip straight into the response, optionally with their history
+@WebServlet(name = "ExportServlet", urlPatterns = {"/ExportServlet"})
+public class ExportServlet extends HttpServlet
+{
+    private static final String[] VersionFiles = { "diff.zip", "changes.json" };
+    private static final String ExportFolder = ".export";
+
+    protected void processRequest(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        DocumentContext context = DocumentManager.Init(request, response);
+        boolean history = "true".equalsIgnoreCase(request.getParameter("history"));
+
+        List<File> files = new ArrayList<File>();
+        String[] names = request.getParameterValues("file");
+        if (names == null || names.length == 0)
+        {
+            File[] all = new File(context.GetFilesRoot()).listFiles(new FileFilter()
+            {
+                @Override
+                public boolean accept(File file)
+                {
+                    return file.isFile() && !file.getName().startsWith(".");
+                }
+            });
+            if (all != null)
+            {
+                Arrays.sort(all);
+                files.addAll(Arrays.asList(all));
+            }
+        }
+        else
+        {
+            for (String name : names)
+            {
+                //only plain names of the folder of the user, anything with a path is not one of them
+                File file = new File(DocumentManager.StoragePath(context, name, null));
+                if (name.isEmpty() || !file.getName().equals(name) || !file.isFile())
+                {
+                    response.sendError(HttpServletResponse.SC_NOT_FOUND, "File is not found: " + name);
+                    return;
+                }
+                files.add(file);
+            }
+        }
+
+        String archive = files.size() == 1 ? files.get(0).getName() + ".zip" : "documents.zip";
+        response.setContentType("application/zip");
+        response.setHeader("Content-Disposition", "attachment; filename*=UTF-8''" + URLEncoder.encode(archive, "UTF-8").replace("+", "%20"));
+
+        byte[] buffer = new byte[64 * 1024];
+        File temp = Paths.get(context.GetStorageRoot(), ExportFolder, UUID.randomUUID().toString()).toFile();
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(response.getOutputStream(), buffer.length)))
+        {
+            for (File file : files)
+            {
+                WriteEntry(zip, file.getName(), file, temp, buffer);
+
+                if (history)
+                {
+                    String histDir = DocumentManager.HistoryDir(file.getPath());
+                    int versions = DocumentManager.GetFileVersion(histDir);
+                    for (int version = 1; version <= versions; version++)
+                    {
+                        File versionDir = new File(DocumentManager.VersionDir(histDir, version));
+                        String prefix = file.getName() + "-hist/" + version + "/";
+
+                        File[] prev = versionDir.listFiles(new FileFilter()
+                        {
+                            @Override
+                            public boolean accept(File candidate)
+                            {
+                                return candidate.isFile() && candidate.getName().startsWith("prev.");
+                            }
+                        });
+                        if (prev != null)
+                        {
+                            for (File previous : prev)
+                            {
+                                WriteEntry(zip, prefix + previous.getName(), previous, temp, buffer);
+                            }
+                        }
+
+                        for (String name : VersionFiles)
+                        {
+                            File versionFile = new File(versionDir, name);
+                            if (versionFile.isFile())
+                            {
+                                WriteEntry(zip, prefix + name, versionFile, temp, buffer);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            temp.delete();
+        }
+    }
+
+    //office documents, archives and images are compressed already, so they are stored as they are, which needs
+    //their size and checksum before the data and costs a first read of the file instead of a second compression.
+    //both reads go to a link to the file, a save that renames a new file in between must not change the data
+    //the checksum was taken of
+    private static void WriteEntry(ZipOutputStream zip, String name, File file, File temp, byte[] buffer) throws IOException
+    {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(file.lastModified());
+
+        if (!IsCompressed(file))
+        {
+            zip.putNextEntry(entry);
+            try (InputStream stream = new FileInputStream(file))
+            {
+                Copy(stream, zip, buffer);
+            }
+            zip.closeEntry();
+            return;
+        }
+
+        temp.mkdirs();
+        Path snapshot = temp.toPath().resolve(UUID.randomUUID().toString());
+        HistoryManager.Share(file.toPath(), snapshot);
+        try
+        {
+            CRC32 crc = new CRC32();
+            long size = 0;
+            try (InputStream stream = Files.newInputStream(snapshot))
+            {
+                int read;
+                while ((read = stream.read(buffer)) != -1)
+                {
+                    crc.update(buffer, 0, read);
+                    size += read;
+                }
+            }
+
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(size);
+            entry.setCompressedSize(size);
+            entry.setCrc(crc.getValue());
+
+            zip.putNextEntry(entry);
+            try (InputStream stream = Files.newInputStream(snapshot))
+            {
+                Copy(stream, zip, buffer);
+            }
+            zip.closeEntry();
+        }
+        finally
+        {
+            Files.deleteIfExists(snapshot);
+        }
+    }
+
+    private static boolean IsCompressed(File file) throws IOException
+    {
+        byte[] head = new byte[4];
+        int length = 0;
+        try (InputStream stream = new FileInputStream(file))
+        {
+            int read;
+            while (length < head.length && (read = stream.read(head, length, head.length - length)) != -1)
+            {
+                length += read;
+            }
+        }
+        if (length < head.length) return false;
+
+        boolean zip = head[0] == 'P' && head[1] == 'K' && head[2] == 3 && head[3] == 4;
+        boolean png = (head[0] & 0xFF) == 0x89 && head[1] == 'P' && head[2] == 'N' && head[3] == 'G';
+        boolean jpeg = (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xD8 && (head[2] & 0xFF) == 0xFF;
+        return zip || png || jpeg;
+    }
+
+    private static void Copy(InputStream stream, OutputStream out, byte[] buffer) throws IOException
+    {
+        int read;
+        while ((read = stream.read(buffer)) != -1)
+        {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        long start = System.nanoTime();
+        Metrics.ActiveRequests.Increment();
+        try
+        {
+            processRequest(request, response);
+        }
+        finally
+        {
+            Metrics.ActiveRequests.Decrement();
+            Metrics.ExportTime.RecordSince(start);
+        }
+    }
+
+    @Override
+    public String getServletInfo()
+    {
+        return "Export of documents";
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package controllers;
+
+import com.google.gson.Gson;
+import entities.FileType;
+import helpers.DocumentContext;
+import helpers.DocumentManager;
+import helpers.Metrics;
+import helpers.StorageIndex;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+@WebServlet(name = "FilesServlet", urlPatterns = {"/FilesServlet"})
+public class FilesServlet extends HttpServlet
+{
+    private static final int DefaultPageSize = 50;
+    private static final int MaxPageSize = 500;
+
+    protected void processRequest(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        DocumentContext context = DocumentManager.Init(request, response);
+        StorageIndex.Directory directory = StorageIndex.Get(context.GetFilesRoot());
+
+        //every change of the directory changes the token, so it identifies any listing of it
+        String etag = "\"" + directory.GetToken() + "\"";
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", "private, no-cache");
+
+        if (etag.equals(request.getHeader("If-None-Match")))
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        StorageIndex.Page page;
+        String since = request.getParameter("since");
+
+        if (since != null)
+        {
+            page = directory.Changes(since);
+        }
+        else
+        {
+            int limit = DefaultPageSize;
+            try
+            {
+                limit = Math.max(1, Math.min(Integer.parseInt(request.getParameter("limit")), MaxPageSize));
+            }
+            catch (Exception ex)
+            {
+            }
+
+            page = directory.List(request.getParameter("sort"), "desc".equalsIgnoreCase(request.getParameter("order")),
+                    GetFileType(request.getParameter("filter")), request.getParameter("cursor"), limit);
+        }
+
+        List<Map<String, Object>> files = new ArrayList<Map<String, Object>>();
+        for (StorageIndex.Entry entry : page.files)
+        {
+            files.add(entry.ToMap());
+        }
+
+        Map<String, Object> result = new HashMap<String, Object>();
+        result.put("token", page.token);
+        result.put("filesUrl", DocumentManager.GetFileUri(context, ""));
+        result.put("files", files);
+        if (since != null)
+        {
+            result.put("removed", page.removed);
+            result.put("reset", page.reset);
+        }
+        else
+        {
+            result.put("next", page.next);
+        }
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(new Gson().toJson(result));
+    }
+
+    private static FileType GetFileType(String filter)
+    {
+        if (filter == null || filter.isEmpty()) return null;
+
+        for (FileType type : FileType.values())
+        {
+            if (type.toString().equalsIgnoreCase(filter)) return type;
+        }
+
+        return null;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        long start = System.nanoTime();
+        Metrics.ActiveRequests.Increment();
+        try
+        {
+            processRequest(request, response);
+        }
+        finally
+        {
+            Metrics.ActiveRequests.Decrement();
+            Metrics.FilesTime.RecordSince(start);
+        }
+    }
+
+    @Override
+    public String getServletInfo()
+    {
+        return "Stored files";
+    }
+}
@@ -18,6 +18,14 @@
 
 package controllers;
 
+import helpers.ChunkedUpload;
+import helpers.ConfigManager;
+import helpers.HistoryManager;
+import helpers.IoExecutor;
+import helpers.RateLimiter;
+import helpers.SearchIndex;
+import helpers.StaticAssets;
+import helpers.Thumbnails;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
@@ -35,12 +43,27 @@ public class GlobalServletContextListener implements ServletContextListener
     @Override
     public void contextDestroyed(ServletContextEvent arg0)
     {
+        ConfigManager.StopWatch();
+        IoExecutor.Shutdown();
+        IndexServlet.ShutdownShared();
+        IndexServlet.ShutdownImports();
+        Thumbnails.Shutdown();
+        SearchIndex.Shutdown();
+        HistoryManager.Shutdown();
+        RateLimiter.Shutdown();
+
         System.out.println("ServletContextListener destroyed");
     }
 
     @Override
     public void contextInitialized(ServletContextEvent arg0)
     {
+        StaticAssets.Init(arg0.getServletContext());
+        IoExecutor.Init(ConfigManager.Get().ioThreads);
+        String storageRoot = arg0.getServletContext().getRealPath("") + ConfigManager.Get().storageFolder;
+        HistoryManager.Init(storageRoot);
+        ChunkedUpload.Init(storageRoot);
+
         TrustManager[] trustAllCerts = new TrustManager[]
         {
             new X509TrustManager()
@@ -86,6 +109,8 @@ public class GlobalServletContextListener implements ServletContextListener
 
         HttpsURLConnection.setDefaultHostnameVerifier(allHostsValid);
 
+        ConfigManager.Watch();
+
         System.out.println("ServletContextListener started");
     }
 }
\ No newline at end of file
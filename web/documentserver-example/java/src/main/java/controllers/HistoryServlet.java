@@ -0,0 +1,114 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package controllers;
+
+import helpers.DocumentContext;
+import helpers.DocumentManager;
+import helpers.Metrics;
+import helpers.HistoryManager;
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+@WebServlet(name = "HistoryServlet", urlPatterns = {"/HistoryServlet"})
+public class HistoryServlet extends HttpServlet
+{
+    protected void processRequest(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        DocumentContext context = DocumentManager.Init(request, response);
+
+        String fileName = request.getParameter("fileName");
+        if (fileName == null || fileName.trim().isEmpty())
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        fileName = fileName.trim();
+
+        String histDir = DocumentManager.HistoryDir(DocumentManager.StoragePath(context, fileName, null));
+        String key = DocumentManager.GetDocumentKey(context, fileName, null);
+
+        //the document key changes with every saved version, so it identifies the whole history
+        String etag = "\"" + key + "\"";
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", "private, no-cache");
+
+        if (etag.equals(request.getHeader("If-None-Match")))
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+
+        //the editor takes the whole list at once, so it is sent in one response that the etag saves on the next open
+        String version = request.getParameter("version");
+        if (version == null)
+        {
+            String hist = HistoryManager.GetHistory(context, histDir, fileName, key);
+            response.getWriter().write(hist.isEmpty() ? "{\"currentVersion\":0,\"history\":[]}" : hist);
+            return;
+        }
+
+        String data = null;
+        try
+        {
+            data = HistoryManager.GetHistoryData(context, histDir, fileName, key, Integer.parseInt(version));
+        }
+        catch (NumberFormatException ex)
+        {
+        }
+
+        if (data == null)
+        {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        response.getWriter().write(data);
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        long start = System.nanoTime();
+        Metrics.ActiveRequests.Increment();
+        try
+        {
+            processRequest(request, response);
+        }
+        finally
+        {
+            Metrics.ActiveRequests.Decrement();
+            Metrics.HistoryTime.RecordSince(start);
+        }
+    }
+
+    @Override
+    public String getServletInfo()
+    {
+        return "Document history";
+    }
+}
@@ -18,19 +18,48 @@
 
 package controllers;
 
+import helpers.Bulkhead;
+import helpers.ChunkedUpload;
 import helpers.ConfigManager;
 import helpers.CookieManager;
+import helpers.DocumentContext;
 import helpers.DocumentManager;
+import helpers.EditorCache;
+import helpers.FlightEvents;
+import helpers.HistoryManager;
+import helpers.IoExecutor;
+import helpers.Metrics;
+import helpers.RateLimiter;
+import helpers.SearchIndex;
 import helpers.ServiceConverter;
+import helpers.StorageIndex;
+import helpers.Thumbnails;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.net.URL;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.MultipartConfig;
 import javax.servlet.annotation.WebServlet;
@@ -38,6 +67,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.Part;
+import entities.FileFormat;
 import entities.FileType;
 import helpers.FileUtility;
 import org.json.simple.JSONObject;
@@ -45,11 +75,111 @@ import org.json.simple.parser.JSONParser;
 
 import org.primeframework.jwt.domain.JWT;
 
-@WebServlet(name = "IndexServlet", urlPatterns = {"/IndexServlet"})
+@WebServlet(name = "IndexServlet", urlPatterns = {"/IndexServlet"}, asyncSupported = true)
 @MultipartConfig
 public class IndexServlet extends HttpServlet
 {
-    private static final String DocumentJwtHeader = ConfigManager.GetProperty("files.docservice.header");
+    //the conversions of imported documents have no one waiting for them, so they run in the background on a few threads,
+    //an archive fills the queue at most up to import-convert-queue and the rest of its documents are left as they are
+    private static final ThreadPoolExecutor ImportConversions;
+    static
+    {
+        ConfigManager.Config config = ConfigManager.Get();
+        int threads = (int) Math.max(1, config.GetLong("import-convert-threads", 2));
+        int queue = (int) Math.max(1, config.GetLong("import-convert-queue", 100));
+        ImportConversions = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queue), new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "import-converter");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        ImportConversions.allowCoreThreadTimeOut(true);
+    }
+
+    //"convert" and "download as" both wait for the converter, so they share one bulkhead and the limits of their users,
+    //made by the first of the servlets to start and shut down with the context
+    private static final Object SharedLock = new Object();
+    private static boolean SharedCreated;
+    private static Bulkhead SharedConversions;
+    private static RateLimiter SharedConvertRequests;
+
+    private Bulkhead uploads;
+    private Bulkhead conversions;
+    private Bulkhead callbacks;
+    private Bulkhead removals;
+
+    private RateLimiter uploadRequests;
+    private RateLimiter uploadBytes;
+    private RateLimiter convertRequests;
+
+    @Override
+    public void init() throws ServletException
+    {
+        //the document server marks a save as failed when its callback is not answered, what keeps the callbacks going
+        //is isolation rather than priority: they have threads and a queue of their own that no other action can take,
+        //and a callback is run on the container thread instead of being turned away when its queue is full.
+        //thread priorities are left alone, the jvm ignores them on linux and virtual threads do not have them
+        uploads = Bulkhead.Create("upload", Metrics.UploadQueue, Metrics.UploadRejected);
+        conversions = Conversions();
+        callbacks = Bulkhead.Create("track", Metrics.TrackQueue, Metrics.TrackRejected);
+        removals = Bulkhead.Create("remove", Metrics.RemoveQueue, Metrics.RemoveRejected);
+
+        uploadRequests = RateLimiter.Create("upload", Metrics.UploadAllowed, Metrics.UploadThrottled);
+        uploadBytes = RateLimiter.Create("upload-bytes", Metrics.UploadBytesAllowed, Metrics.UploadBytesThrottled);
+        convertRequests = ConvertRequests();
+    }
+
+    @Override
+    public void destroy()
+    {
+        for (Bulkhead bulkhead : new Bulkhead[] { uploads, callbacks, removals })
+        {
+            if (bulkhead != null) bulkhead.Shutdown();
+        }
+    }
+
+    static Bulkhead Conversions()
+    {
+        synchronized (SharedLock)
+        {
+            CreateShared();
+            return SharedConversions;
+        }
+    }
+
+    static RateLimiter ConvertRequests()
+    {
+        synchronized (SharedLock)
+        {
+            CreateShared();
+            return SharedConvertRequests;
+        }
+    }
+
+    private static void CreateShared()
+    {
+        if (SharedCreated) return;
+
+        SharedConversions = Bulkhead.Create("convert", Metrics.ConvertQueue, Metrics.ConvertRejected);
+        SharedConvertRequests = RateLimiter.Create("convert", Metrics.ConvertAllowed, Metrics.ConvertThrottled);
+        SharedCreated = true;
+    }
+
+    static void ShutdownShared()
+    {
+        synchronized (SharedLock)
+        {
+            if (SharedConversions != null) SharedConversions.Shutdown();
+            SharedConversions = null;
+            SharedConvertRequests = null;
+            SharedCreated = false;
+        }
+    }
 
     protected void processRequest(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
     {
@@ -61,28 +191,329 @@ public class IndexServlet extends HttpServlet
             return;
         }
 
-        DocumentManager.Init(request, response);
+        DocumentContext context = DocumentManager.Init(request, response);
         PrintWriter writer = response.getWriter();
 
-        switch (action.toLowerCase())
+        long start = System.nanoTime();
+        Metrics.Histogram timer = null;
+        Metrics.ActiveRequests.Increment();
+        boolean dispatched = false;
+
+        try
+        {
+            switch (action.toLowerCase())
+            {
+                case "upload":
+                    timer = Metrics.UploadTime;
+                    if (Throttle(uploadRequests, 1, request, response, writer) || Throttle(uploadBytes, UploadCost(request), request, response, writer)) break;
+                    dispatched = Dispatch(uploads, UploadAction, context, request, response, writer, timer, start);
+                    break;
+                case "upload-start":
+                    if (Throttle(uploadRequests, 1, request, response, writer)) break;
+                    UploadStart(context, request, response, writer);
+                    break;
+                case "upload-status":
+                    UploadStatus(context, request, response, writer);
+                    break;
+                case "upload-chunk":
+                    timer = Metrics.UploadChunkTime;
+                    if (Throttle(uploadBytes, UploadCost(request), request, response, writer)) break;
+                    dispatched = Dispatch(uploads, UploadChunkAction, context, request, response, writer, timer, start);
+                    break;
+                case "upload-commit":
+                    timer = Metrics.UploadTime;
+                    dispatched = Dispatch(uploads, UploadCommitAction, context, request, response, writer, timer, start);
+                    break;
+                case "upload-abort":
+                    UploadAbort(context, request, response, writer);
+                    break;
+                case "import":
+                    timer = Metrics.ImportTime;
+                    if (Throttle(uploadRequests, 1, request, response, writer)) break;
+                    //an archive is charged all of its length, one of unknown length entry by entry as it is read
+                    long length = request.getContentLengthLong();
+                    if (length >= 0 && Throttle(uploadBytes, length, request, response, writer)) break;
+                    dispatched = Dispatch(uploads, ImportAction(length < 0 ? uploadBytes : null), context, request, response, writer, timer, start);
+                    break;
+                case "convert":
+                    timer = Metrics.ConvertTime;
+                    if (Throttle(convertRequests, 1, request, response, writer)) break;
+                    dispatched = Dispatch(conversions, ConvertAction, context, request, response, writer, timer, start);
+                    break;
+                case "track":
+                    timer = Metrics.TrackTime;
+                    dispatched = Dispatch(callbacks, TrackAction, context, request, response, writer, timer, start);
+                    break;
+                case "remove":
+                    timer = Metrics.RemoveTime;
+                    dispatched = Dispatch(removals, RemoveAction, context, request, response, writer, timer, start);
+                    break;
+                case "restore":
+                    timer = Metrics.RestoreTime;
+                    Restore(context, request, response, writer);
+                    break;
+            }
+        }
+        finally
+        {
+            //a dispatched request is accounted by its task when it completes
+            if (!dispatched)
+            {
+                Metrics.ActiveRequests.Decrement();
+                if (timer != null) timer.RecordSince(start);
+            }
+        }
+    }
+
+    //true when the user of the request has run out of tokens and got a 429, the limits are kept per uid cookie
+    //and per address for the users without one
+    static boolean Throttle(RateLimiter limiter, long cost, HttpServletRequest request, HttpServletResponse response, PrintWriter writer) throws IOException
+    {
+        if (limiter == null) return false;
+
+        long wait = limiter.TryAcquire(LimitKey(request), cost);
+        if (wait == 0) return false;
+
+        Refuse(response, writer, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1)), "Too many requests, try again later");
+        return true;
+    }
+
+    private static String LimitKey(HttpServletRequest request) throws IOException
+    {
+        String uid = new CookieManager(request).getCookie("uid");
+        return uid == null || uid.isEmpty() ? "address:" + request.getRemoteAddr() : "uid:" + uid;
+    }
+
+    //a 429 with the error in the body the actions answer with, a response without a writer gets it as an error page
+    private static void Refuse(HttpServletResponse response, PrintWriter writer, long retryAfter, String error) throws IOException
+    {
+        response.setHeader("Retry-After", Long.toString(retryAfter));
+        if (writer == null)
+        {
+            response.sendError(429, error);
+            return;
+        }
+
+        response.setContentType("text/plain");
+        response.setStatus(429);
+        writer.write("{ \"error\": \"" + error + "\"}");
+    }
+
+    //the body is charged before it is read, a body of unknown length as a file of the largest size
+    private static long UploadCost(HttpServletRequest request)
+    {
+        long length = request.getContentLengthLong();
+        return length < 0 ? DocumentManager.GetMaxFileSize() : Math.min(length, DocumentManager.GetMaxFileSize());
+    }
+
+    interface Action
+    {
+        void Run(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer);
+    }
+
+    //an action that waits for the converter or the document server, it leaves the container thread even without a bulkhead
+    interface BlockingAction extends Action
+    {
+    }
+
+    private static final Action UploadAction = new Action()
+    {
+        @Override
+        public void Run(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+        {
+            Upload(context, request, response, writer);
+        }
+    };
+
+    private static final Action UploadChunkAction = new Action()
+    {
+        @Override
+        public void Run(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+        {
+            UploadChunk(context, request, response, writer);
+        }
+    };
+
+    private static final Action UploadCommitAction = new Action()
+    {
+        @Override
+        public void Run(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+        {
+            UploadCommit(context, request, response, writer);
+        }
+    };
+
+    //the limiter charges the body as it is read, it is null when the body has been charged already
+    private static Action ImportAction(final RateLimiter bytes)
+    {
+        return new Action()
+        {
+            @Override
+            public void Run(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+            {
+                Import(context, request, response, writer, bytes);
+            }
+        };
+    }
+
+    private static final Action ConvertAction = new BlockingAction()
+    {
+        @Override
+        public void Run(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+        {
+            Convert(context, request, response, writer);
+        }
+    };
+
+    private static final Action TrackAction = new BlockingAction()
+    {
+        @Override
+        public void Run(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+        {
+            Track(context, request, response, writer);
+        }
+    };
+
+    private static final Action RemoveAction = new Action()
+    {
+        @Override
+        public void Run(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+        {
+            Remove(context, request, response, writer);
+        }
+    };
+
+    //an action runs on its bulkhead, a full one answers 429 at once but a callback is never turned away and runs inline,
+    //without a bulkhead only the blocking actions leave the container thread in the virtual mode. false when run inline.
+    //an action without a writer writes to the output stream of the response, which is closed when it is done
+    static boolean Dispatch(Bulkhead bulkhead, final Action action, final DocumentContext context, final HttpServletRequest request,
+            final HttpServletResponse response, final PrintWriter writer, final Metrics.Histogram timer, final long start) throws IOException
+    {
+        if (bulkhead == null && !(action instanceof BlockingAction && IoExecutor.IsAsync()))
+        {
+            action.Run(context, request, response, writer);
+            return false;
+        }
+
+        AsyncContext async = request.startAsync();
+        //the actions bound their own work and a callback may wait in its queue, a container timeout would answer
+        //a save that still completes with an error, so the request stays open until the action is done
+        async.setTimeout(0);
+        final Completion completion = new Completion(async, writer, timer, start);
+        async.addListener(completion);
+        Metrics.DispatchedRequests.Increment();
+
+        Runnable task = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    action.Run(context, request, response, writer);
+                }
+                finally
+                {
+                    completion.Complete(true);
+                }
+            }
+        };
+
+        boolean submitted = bulkhead == null ? IoExecutor.Submit(task) : bulkhead.Submit(task);
+        if (submitted) return true;
+
+        if (bulkhead == null || action == TrackAction)
+        {
+            task.run();
+            return true;
+        }
+
+        Refuse(response, writer, ConfigManager.Get().GetLong("bulkhead-retry-after", 1), "The server is busy, try again later");
+        completion.Complete(false);
+        return true;
+    }
+
+    //a dispatched request is finished once, by its action or by the container when the client has gone away,
+    //the gauges are released either way
+    private static class Completion implements AsyncListener
+    {
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final AsyncContext async;
+        private final PrintWriter writer;
+        private final Metrics.Histogram timer;
+        private final long start;
+
+        private Completion(AsyncContext async, PrintWriter writer, Metrics.Histogram timer, long start)
+        {
+            this.async = async;
+            this.writer = writer;
+            this.timer = timer;
+            this.start = start;
+        }
+
+        private void Complete(boolean record)
+        {
+            if (!done.compareAndSet(false, true)) return;
+
+            try
+            {
+                //closing the body ends it, so that a compressing filter can write its trailer
+                if (writer != null) writer.close();
+                else async.getResponse().getOutputStream().close();
+                async.complete();
+            }
+            catch (IllegalStateException | IOException ex)
+            {
+            }
+            finally
+            {
+                Release(record);
+            }
+        }
+
+        private void Release(boolean record)
+        {
+            Metrics.DispatchedRequests.Decrement();
+            Metrics.ActiveRequests.Decrement();
+            if (record && timer != null) timer.RecordSince(start);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException
+        {
+            if (done.compareAndSet(false, true)) Release(true);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException
+        {
+            if (!done.compareAndSet(false, true)) return;
+
+            try
+            {
+                HttpServletResponse response = (HttpServletResponse) event.getSuppliedResponse();
+                if (!response.isCommitted()) response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                async.complete();
+            }
+            finally
+            {
+                Release(true);
+            }
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException
+        {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException
         {
-            case "upload":
-                Upload(request, response, writer);
-                break;
-            case "convert":
-                Convert(request, response, writer);
-                break;
-            case "track":
-                Track(request, response, writer);
-                break;
-            case "remove":
-                Remove(request, response, writer);
-                break;
         }
     }
 
 
-    private static void Upload(HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+    private static void Upload(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
     {
         response.setContentType("text/plain");
 
@@ -100,14 +531,15 @@ public class IndexServlet extends HttpServlet
             }
 
             long curSize = httpPostedFile.getSize();
+            Metrics.BytesUploaded.Add(curSize);
             if (DocumentManager.GetMaxFileSize() < curSize || curSize <= 0)
             {
                 writer.write("{ \"error\": \"File size is incorrect\"}");
                 return;
             }
 
-            String curExt = FileUtility.GetFileExtension(fileName);
-            if (!DocumentManager.GetFileExts().contains(curExt))
+            FileFormat format = FileUtility.GetFileFormat(fileName);
+            if (format == null || !format.IsSupported())
             {
                 writer.write("{ \"error\": \"File type is not supported\"}");
                 return;
@@ -115,25 +547,40 @@ public class IndexServlet extends HttpServlet
 
             InputStream fileStream = httpPostedFile.getInputStream();
 
-            fileName = DocumentManager.GetCorrectName(fileName);
-            String fileStoragePath = DocumentManager.StoragePath(fileName, null);
+            final byte[] bytes = new byte[8192];
+            int head = 0;
+            int read;
+            while (head < bytes.length && (read = fileStream.read(bytes, head, bytes.length - head)) != -1)
+            {
+                head += read;
+            }
+
+            fileName = DocumentManager.GetCorrectName(context, SniffName(fileName, bytes, head));
+            String fileStoragePath = DocumentManager.StoragePath(context, fileName, null);
 
             File file = new File(fileStoragePath);
 
+            FlightEvents.FileCopyEvent copy = FlightEvents.FileCopyEvent.Begin("upload", fileStoragePath);
             try (FileOutputStream out = new FileOutputStream(file))
             {
-                int read;
-                final byte[] bytes = new byte[1024];
+                out.write(bytes, 0, head);
+                copy.bytes = head;
                 while ((read = fileStream.read(bytes)) != -1)
                 {
                     out.write(bytes, 0, read);
+                    copy.bytes += read;
                 }
 
                 out.flush();
             }
+            copy.Finish();
 
             CookieManager cm = new CookieManager(request);
-            DocumentManager.CreateMeta(fileName, cm.getCookie("uid"), cm.getCookie("uname"));
+            DocumentManager.CreateMeta(context, fileName, cm.getCookie("uid"), cm.getCookie("uname"));
+            EditorCache.Invalidate(context.GetHostAddress(), fileName);
+            StorageIndex.Update(context.GetFilesRoot(), fileName);
+            Thumbnails.Queue(context, fileName, Thumbnails.Saved);
+            SearchIndex.Queue(context, fileName);
 
             writer.write("{ \"filename\": \"" + fileName + "\"}");
 
@@ -144,64 +591,428 @@ public class IndexServlet extends HttpServlet
         }
     }
 
-    private static void Convert(HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+    //a misnamed file is stored under the extension of its content, so it does not go through the converter
+    private static String SniffName(String fileName, byte[] head, int length)
+    {
+        if (ConfigManager.Get().sniffFormats)
+        {
+            String[] sniffed = FileUtility.SniffExtensions(head, length);
+            if (sniffed != null && !Arrays.asList(sniffed).contains(FileUtility.GetFileExtension(fileName)))
+            {
+                FileFormat actual = FileUtility.GetFileFormat(sniffed[0]);
+                if (actual != null && actual.IsSupported())
+                {
+                    return FileUtility.GetFileNameWithoutExtension(fileName) + sniffed[0];
+                }
+            }
+        }
+        return fileName;
+    }
+
+    private static void UploadStart(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
     {
         response.setContentType("text/plain");
 
         try
         {
-            String fileName = request.getParameter("filename");
-            String fileUri = DocumentManager.GetFileUri(fileName);
-            String fileExt = FileUtility.GetFileExtension(fileName);
-            FileType fileType = FileUtility.GetFileType(fileName);
-            String internalFileExt = DocumentManager.GetInternalExtension(fileType);
+            long size = Long.parseLong(request.getParameter("size"));
+            ChunkedUpload.Session session = ChunkedUpload.Start(context, request.getParameter("name"), size);
 
-            if (DocumentManager.GetConvertExts().contains(fileExt))
-            {
-                String key = ServiceConverter.GenerateRevisionId(fileUri);
+            writer.write("{ \"id\": \"" + session.id + "\", \"chunkSize\": " + session.chunkSize + ", \"chunks\": " + session.chunks + "}");
+        }
+        catch (Exception e)
+        {
+            writer.write("{ \"error\": \"" + e.getMessage() + "\"}");
+        }
+    }
 
-                String newFileUri = ServiceConverter.GetConvertedUri(fileUri, fileExt, internalFileExt, key, true);
+    //what the server has of an upload, a client resumes by sending the missing chunks
+    @SuppressWarnings("unchecked")
+    private static void UploadStatus(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+    {
+        response.setContentType("text/plain");
 
-                if (newFileUri.isEmpty())
+        ChunkedUpload.Session session = ChunkedUpload.Get(context, request.getParameter("id"));
+        if (session == null)
+        {
+            writer.write("{ \"error\": \"Upload is not found\"}");
+            return;
+        }
+
+        JSONObject status = new JSONObject();
+        status.put("id", session.id);
+        status.put("size", session.size);
+        status.put("chunkSize", session.chunkSize);
+        status.put("offset", session.GetOffset());
+        status.put("missing", session.GetMissing());
+        writer.write(status.toJSONString());
+    }
+
+    private static void UploadChunk(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+    {
+        response.setContentType("text/plain");
+
+        try
+        {
+            ChunkedUpload.Session session = ChunkedUpload.Get(context, request.getParameter("id"));
+            if (session == null) throw new Exception("Upload is not found");
+
+            ChunkedUpload.Write(session, Integer.parseInt(request.getParameter("index")), request.getInputStream(), request.getParameter("crc32"));
+
+            writer.write("{ \"received\": " + session.GetReceived() + ", \"offset\": " + session.GetOffset() + "}");
+        }
+        catch (Exception e)
+        {
+            writer.write("{ \"error\": \"" + e.getMessage() + "\"}");
+        }
+    }
+
+    //the name is chosen and the meta is written only now, the complete file is linked into the storage under a name
+    //that is still free, so a concurrent upload of the same name cannot be overwritten
+    private static void UploadCommit(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+    {
+        response.setContentType("text/plain");
+
+        try
+        {
+            ChunkedUpload.Session session = ChunkedUpload.Get(context, request.getParameter("id"));
+            if (session == null) throw new Exception("Upload is not found");
+
+            Path temp = ChunkedUpload.Finish(session);
+            if (temp == null) throw new Exception("Upload is not complete");
+
+            byte[] head = new byte[8192];
+            int length = 0;
+            try (InputStream stream = Files.newInputStream(temp))
+            {
+                int read;
+                while (length < head.length && (read = stream.read(head, length, head.length - length)) != -1)
                 {
-                    writer.write("{ \"step\" : \"0\", \"filename\" : \"" + fileName + "\"}");
-                    return;
+                    length += read;
+                }
+            }
+
+            String fileName = SniffName(session.fileName, head, length);
+            boolean link = true;
+            while (true)
+            {
+                fileName = DocumentManager.GetCorrectName(context, fileName);
+                Path target = Paths.get(DocumentManager.StoragePath(context, fileName, null));
+                try
+                {
+                    if (link)
+                    {
+                        Files.createLink(target, temp);
+                        Files.delete(temp);
+                    }
+                    else
+                    {
+                        //where there are no links, a move without replacing refuses a taken name as well
+                        Files.move(temp, target);
+                    }
+                    break;
                 }
+                catch (FileAlreadyExistsException ex)
+                {
+                }
+                catch (IOException | UnsupportedOperationException ex)
+                {
+                    if (!link) throw ex;
+                    link = false;
+                }
+            }
+
+            CookieManager cm = new CookieManager(request);
+            DocumentManager.CreateMeta(context, fileName, cm.getCookie("uid"), cm.getCookie("uname"));
+            EditorCache.Invalidate(context.GetHostAddress(), fileName);
+            StorageIndex.Update(context.GetFilesRoot(), fileName);
+            Thumbnails.Queue(context, fileName, Thumbnails.Saved);
+            SearchIndex.Queue(context, fileName);
+
+            writer.write("{ \"filename\": \"" + fileName + "\"}");
+        }
+        catch (Exception e)
+        {
+            writer.write("{ \"error\": \"" + e.getMessage() + "\"}");
+        }
+    }
+
+    private static void UploadAbort(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+    {
+        response.setContentType("text/plain");
+
+        try
+        {
+            ChunkedUpload.Session session = ChunkedUpload.Get(context, request.getParameter("id"));
+            if (session != null) ChunkedUpload.Abort(session);
+
+            writer.write("{ \"success\": true }");
+        }
+        catch (Exception e)
+        {
+            writer.write("{ \"error\": \"" + e.getMessage() + "\"}");
+        }
+    }
 
-                String correctName = DocumentManager.GetCorrectName(FileUtility.GetFileNameWithoutExtension(fileName) + internalFileExt);
+    //stores the documents of a zip sent as the body entry by entry as the archive arrives and answers a json line
+    //for every entry, so neither the archive nor an entry is ever held whole, whatever their size
+    @SuppressWarnings("unchecked")
+    private static void Import(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer, RateLimiter bytes)
+    {
+        response.setContentType("application/x-ndjson");
 
-                URL url = new URL(newFileUri);
-                java.net.HttpURLConnection connection = (java.net.HttpURLConnection) url.openConnection();
-                InputStream stream = connection.getInputStream();
+        int imported = 0;
+        int failed = 0;
 
-                if (stream == null)
+        try
+        {
+            CookieManager cm = new CookieManager(request);
+            String uid = cm.getCookie("uid");
+            String uname = cm.getCookie("uname");
+            boolean convert = "true".equalsIgnoreCase(request.getParameter("convert"));
+            long maxEntries = ConfigManager.Get().GetLong("import-max-entries", 1000);
+
+            byte[] buffer = new byte[8192];
+            CountingStream body = new CountingStream(request.getInputStream());
+            long charged = 0;
+            try (ZipInputStream zip = new ZipInputStream(body))
+            {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null)
                 {
-                    throw new Exception("Stream is null");
+                    //the body read so far is charged entry by entry, skipped ones included, the archive stops at the first refusal
+                    long read = body.count - charged;
+                    charged = body.count;
+                    if (bytes != null && bytes.TryAcquire(LimitKey(request), read) > 0)
+                    {
+                        JSONObject refused = new JSONObject();
+                        refused.put("entry", entry.getName());
+                        refused.put("error", "Too many requests, try again later");
+                        WriteLine(writer, refused);
+                        failed++;
+                        break;
+                    }
+
+                    String name = entry.getName().replace('\\', '/');
+                    name = name.substring(name.lastIndexOf('/') + 1);
+                    if (entry.isDirectory() || name.isEmpty() || name.startsWith(".") || entry.getName().startsWith("__MACOSX/")) continue;
+
+                    JSONObject result = new JSONObject();
+                    result.put("entry", entry.getName());
+
+                    if (imported + failed >= maxEntries)
+                    {
+                        result.put("error", "Too many entries");
+                        WriteLine(writer, result);
+                        failed++;
+                        break;
+                    }
+
+                    try
+                    {
+                        String fileName = ImportEntry(context, zip, name, buffer, uid, uname);
+                        result.put("filename", fileName);
+                        imported++;
+
+                        FileFormat format = FileUtility.GetFileFormat(fileName);
+                        if (convert && format != null && format.convertible)
+                        {
+                            result.put("queued", QueueConversion(context, fileName, uid, uname));
+                        }
+                    }
+                    catch (Exception ex)
+                    {
+                        result.put("error", ex.getMessage());
+                        failed++;
+                    }
+
+                    WriteLine(writer, result);
                 }
+            }
+            //the rest of the body after the last entry is charged without a refusal, nothing is left to stop
+            if (bytes != null && body.count > charged) bytes.TryAcquire(LimitKey(request), body.count - charged);
+        }
+        catch (Exception ex)
+        {
+            JSONObject result = new JSONObject();
+            result.put("error", ex.getMessage());
+            WriteLine(writer, result);
+        }
+
+        JSONObject summary = new JSONObject();
+        summary.put("done", true);
+        summary.put("imported", imported);
+        summary.put("failed", failed);
+        WriteLine(writer, summary);
+    }
+
+    //counts the bytes read through it, skipped ones included
+    private static class CountingStream extends FilterInputStream
+    {
+        long count;
+
+        CountingStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int read = super.read(b, off, len);
+            if (read > 0) count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    private static void WriteLine(PrintWriter writer, JSONObject line)
+    {
+        writer.write(line.toJSONString());
+        writer.write('\n');
+        writer.flush();
+    }
+
+    //the entry is checked and stored as an upload would be, a part that outgrows filesize-max is removed again
+    private static String ImportEntry(DocumentContext context, InputStream entry, String name, byte[] buffer, String uid, String uname) throws Exception
+    {
+        FileFormat format = FileUtility.GetFileFormat(name);
+        if (format == null || !format.IsSupported()) throw new Exception("File type is not supported");
 
-                File convertedFile = new File(DocumentManager.StoragePath(correctName, null));
-                try (FileOutputStream out = new FileOutputStream(convertedFile))
+        int head = 0;
+        int read;
+        while (head < buffer.length && (read = entry.read(buffer, head, buffer.length - head)) != -1)
+        {
+            head += read;
+        }
+        if (head == 0) throw new Exception("File size is incorrect");
+
+        String fileName = DocumentManager.GetCorrectName(context, SniffName(name, buffer, head));
+        File file = new File(DocumentManager.StoragePath(context, fileName, null));
+
+        FlightEvents.FileCopyEvent copy = FlightEvents.FileCopyEvent.Begin("import", file.getPath());
+        try (FileOutputStream out = new FileOutputStream(file))
+        {
+            out.write(buffer, 0, head);
+            copy.bytes = head;
+            while ((read = entry.read(buffer)) != -1)
+            {
+                copy.bytes += read;
+                if (copy.bytes > DocumentManager.GetMaxFileSize()) throw new Exception("File size is incorrect");
+                out.write(buffer, 0, read);
+            }
+        }
+        catch (Exception ex)
+        {
+            file.delete();
+            throw ex;
+        }
+        copy.Finish();
+        Metrics.BytesUploaded.Add(copy.bytes);
+
+        DocumentManager.CreateMeta(context, fileName, uid, uname);
+        EditorCache.Invalidate(context.GetHostAddress(), fileName);
+        StorageIndex.Update(context.GetFilesRoot(), fileName);
+        Thumbnails.Queue(context, fileName, Thumbnails.Saved);
+        SearchIndex.Queue(context, fileName);
+        return fileName;
+    }
+
+    //the converted documents show up in the file list through the storage events once they are ready,
+    //false when the queue is full and the document stays in its original format
+    private static boolean QueueConversion(final DocumentContext context, final String fileName, final String uid, final String uname)
+    {
+        Runnable task = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
                 {
-                    int read;
-                    final byte[] bytes = new byte[1024];
-                    while ((read = stream.read(bytes)) != -1)
+                    String fileUri = DocumentManager.GetFileUri(context, fileName);
+                    String internalFileExt = FileUtility.GetFileFormat(fileName).internalExtension;
+                    String key = ServiceConverter.GenerateRevisionId(fileUri);
+                    long deadline = System.currentTimeMillis() + ConfigManager.Get().timeout;
+
+                    String newFileUri;
+                    while ((newFileUri = ServiceConverter.GetConvertedUri(fileUri, FileUtility.GetFileExtension(fileName), internalFileExt, key, true)).isEmpty())
                     {
-                        out.write(bytes, 0, read);
+                        if (System.currentTimeMillis() > deadline)
+                        {
+                            Metrics.ImportConvertFailed.Increment();
+                            return;
+                        }
+                        Thread.sleep(1000);
                     }
 
-                    out.flush();
+                    SaveConverted(context, fileName, internalFileExt, newFileUri, uid, uname);
+                    Metrics.ImportConverted.Increment();
+                }
+                catch (Exception ex)
+                {
+                    Metrics.ImportConvertFailed.Increment();
                 }
+            }
+        };
+
+        try
+        {
+            ImportConversions.execute(task);
+            return true;
+        }
+        catch (RejectedExecutionException ex)
+        {
+            Metrics.ImportConvertRejected.Increment();
+            return false;
+        }
+    }
+
+    static void ShutdownImports()
+    {
+        ImportConversions.shutdownNow();
+    }
+
+    private static void Convert(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+    {
+        response.setContentType("text/plain");
+
+        try
+        {
+            String fileName = request.getParameter("filename");
+            String fileUri = DocumentManager.GetFileUri(context, fileName);
+            String fileExt = FileUtility.GetFileExtension(fileName);
+            FileFormat format = FileUtility.GetFileFormat(fileName);
+            String internalFileExt = format == null ? DocumentManager.GetInternalExtension(FileType.Text) : format.internalExtension;
 
-                connection.disconnect();
+            if (format != null && format.convertible)
+            {
+                String key = ServiceConverter.GenerateRevisionId(fileUri);
 
-                //remove source file ?
-                //File sourceFile = new File(DocumentManager.StoragePath(fileName, null));
-                //sourceFile.delete();
+                String newFileUri = ServiceConverter.GetConvertedUri(fileUri, fileExt, internalFileExt, key, true);
 
-                fileName = correctName;
+                if (newFileUri.isEmpty())
+                {
+                    writer.write("{ \"step\" : \"0\", \"filename\" : \"" + fileName + "\"}");
+                    return;
+                }
 
                 CookieManager cm = new CookieManager(request);
-                DocumentManager.CreateMeta(fileName, cm.getCookie("uid"), cm.getCookie("uname"));
+                fileName = SaveConverted(context, fileName, internalFileExt, newFileUri, cm.getCookie("uid"), cm.getCookie("uname"));
             }
 
             writer.write("{ \"filename\" : \"" + fileName + "\"}");
@@ -213,12 +1024,56 @@ public class IndexServlet extends HttpServlet
         }
     }
 
-    private static void Track(HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+    //downloads the result of a conversion next to its source, returns the name it is stored under
+    private static String SaveConverted(DocumentContext context, String fileName, String internalFileExt, String newFileUri, String uid, String uname) throws Exception
+    {
+        String correctName = DocumentManager.GetCorrectName(context, FileUtility.GetFileNameWithoutExtension(fileName) + internalFileExt);
+
+        URL url = new URL(newFileUri);
+        java.net.HttpURLConnection connection = (java.net.HttpURLConnection) url.openConnection();
+        InputStream stream = connection.getInputStream();
+
+        if (stream == null)
+        {
+            throw new Exception("Stream is null");
+        }
+
+        File convertedFile = new File(DocumentManager.StoragePath(context, correctName, null));
+        FlightEvents.FileCopyEvent copy = FlightEvents.FileCopyEvent.Begin(newFileUri, convertedFile.getPath());
+        try (FileOutputStream out = new FileOutputStream(convertedFile))
+        {
+            int read;
+            final byte[] bytes = new byte[1024];
+            while ((read = stream.read(bytes)) != -1)
+            {
+                out.write(bytes, 0, read);
+                copy.bytes += read;
+            }
+
+            out.flush();
+        }
+        copy.Finish();
+
+        connection.disconnect();
+
+        //remove source file ?
+        //File sourceFile = new File(DocumentManager.StoragePath(context, fileName, null));
+        //sourceFile.delete();
+
+        DocumentManager.CreateMeta(context, correctName, uid, uname);
+        EditorCache.Invalidate(context.GetHostAddress(), correctName);
+        StorageIndex.Update(context.GetFilesRoot(), correctName);
+        Thumbnails.Queue(context, correctName, Thumbnails.Saved);
+        SearchIndex.Queue(context, correctName);
+        return correctName;
+    }
+
+    private static void Track(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
     {
         String userAddress = request.getParameter("userAddress");
         String fileName = request.getParameter("fileName");
 
-        String storagePath = DocumentManager.StoragePath(fileName, userAddress);
+        String storagePath = DocumentManager.StoragePath(context, fileName, userAddress);
         String body = "";
 
         try
@@ -264,7 +1119,7 @@ public class IndexServlet extends HttpServlet
             String token = (String) jsonObj.get("token");
 
             if (token == null) {
-                String header = (String) request.getHeader(DocumentJwtHeader == null || DocumentJwtHeader.isEmpty() ? "Authorization" : DocumentJwtHeader);
+                String header = (String) request.getHeader(ConfigManager.Get().header);
                 if (header != null && !header.isEmpty()) {
                     token = header.startsWith("Bearer ") ? header.substring(7) : header;
                 }
@@ -311,20 +1166,23 @@ public class IndexServlet extends HttpServlet
         int saved = 0;
         if (status == 2 || status == 3)//MustSave, Corrupted
         {
+            FlightEvents.TrackStageEvent stage = FlightEvents.TrackStageEvent.Begin(fileName, "version");
             try
             {
                 String histDir = DocumentManager.HistoryDir(storagePath);
-                String versionDir = DocumentManager.VersionDir(histDir, DocumentManager.GetFileVersion(histDir) + 1);
-                File ver = new File(versionDir);
                 File toSave = new File(storagePath);
 
-                if (!ver.exists()) ver.mkdirs();
+                //the number and the move of the current file are taken together, a restore may run at the same time
+                Integer version = HistoryManager.BeginVersion(histDir, toSave, "prev" + FileUtility.GetFileExtension(fileName));
+                String versionDir = DocumentManager.VersionDir(histDir, version);
 
-                toSave.renameTo(new File(versionDir + File.separator + "prev" + FileUtility.GetFileExtension(fileName)));
+                stage = stage.Next("download");
+                DocumentManager.DownloadToFile(downloadUri, toSave);
 
-                downloadToFile(downloadUri, toSave);
-                downloadToFile(changesUri, new File(versionDir + File.separator + "diff.zip"));
+                stage = stage.Next("changes");
+                HistoryManager.SaveChangesUrl(versionDir, changesUri);
 
+                stage = stage.Next("metadata");
                 String history = (String) jsonObj.get("changeshistory");
                 if (history == null && jsonObj.containsKey("history")) {
                     history = ((JSONObject) jsonObj.get("history")).toJSONString();
@@ -338,22 +1196,39 @@ public class IndexServlet extends HttpServlet
                 FileWriter fw = new FileWriter(new File(versionDir + File.separator + "key.txt"));
                 fw.write(key);
                 fw.close();
+
+                stage = stage.Next("history");
+                HistoryManager.AppendVersion(context, histDir, version, fileName, key, history, DocumentManager.GetDocumentKey(context, fileName, userAddress));
             }
             catch (Exception ex)
             {
                 saved = 1;
             }
+            finally
+            {
+                stage.Finish();
+            }
+
+            EditorCache.Invalidate(DocumentManager.CurUserHostAddress(userAddress), fileName);
+            StorageIndex.Update(DocumentManager.FilesRootPath(context, userAddress), fileName);
+            if (saved == 0)
+            {
+                //the image and the search text are made once the callback is answered, the save does not wait for them
+                DocumentContext owner = new DocumentContext(context.GetServerUrl(), context.GetStorageRoot(), DocumentManager.CurUserHostAddress(userAddress));
+                Thumbnails.Queue(owner, fileName, Thumbnails.Saved);
+                SearchIndex.Queue(owner, fileName);
+            }
         }
 
         writer.write("{\"error\":" + saved + "}");
     }
 
-    private static void Remove(HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+    private static void Remove(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
     {
         try
         {
             String fileName = request.getParameter("filename");
-            String path = DocumentManager.StoragePath(fileName, null);
+            String path = DocumentManager.StoragePath(context, fileName, null);
 
             File f = new File(path);
             delete(f);
@@ -361,6 +1236,10 @@ public class IndexServlet extends HttpServlet
             File hist = new File(DocumentManager.HistoryDir(path));
             delete(hist);
 
+            EditorCache.Invalidate(context.GetHostAddress(), fileName);
+            StorageIndex.Update(context.GetFilesRoot(), fileName);
+            SearchIndex.Queue(context, fileName);
+
             writer.write("{ \"success\": true }");
         }
         catch (Exception e)
@@ -369,41 +1248,37 @@ public class IndexServlet extends HttpServlet
         }
     }
 
-    private static void delete(File f) throws Exception {
-        if (f.isDirectory()) {
-            for (File c : f.listFiles())
-            delete(c);
-        }
-        if (!f.delete())
-            throw new Exception("Failed to delete file: " + f);
-    }
+    //links instead of copies, so it is quick enough to be handled on the request thread
+    private static void Restore(DocumentContext context, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+    {
+        try
+        {
+            String fileName = FileUtility.GetFileName(request.getParameter("filename"));
+            int version = Integer.parseInt(request.getParameter("version"));
 
-    private static void downloadToFile(String url, File file) throws Exception {
-        if (url == null || url.isEmpty()) throw new Exception("argument url");
-        if (file == null) throw new Exception("argument path");
+            CookieManager cm = new CookieManager(request);
+            int restored = HistoryManager.Restore(context, fileName, version, cm.getCookie("uid"), cm.getCookie("uname"));
 
-        URL uri = new URL(url);
-        java.net.HttpURLConnection connection = (java.net.HttpURLConnection) uri.openConnection();
-        InputStream stream = connection.getInputStream();
+            EditorCache.Invalidate(context.GetHostAddress(), fileName);
+            StorageIndex.Update(context.GetFilesRoot(), fileName);
+            Thumbnails.Queue(context, fileName, Thumbnails.Saved);
+            SearchIndex.Queue(context, fileName);
 
-        if (stream == null)
-        {
-            throw new Exception("Stream is null");
+            writer.write("{ \"version\": " + restored + " }");
         }
-
-        try (FileOutputStream out = new FileOutputStream(file))
+        catch (Exception e)
         {
-            int read;
-            final byte[] bytes = new byte[1024];
-            while ((read = stream.read(bytes)) != -1)
-            {
-                out.write(bytes, 0, read);
-            }
-
-            out.flush();
+            writer.write("{ \"error\": \"" + e.getMessage() + "\"}");
         }
+    }
 
-        connection.disconnect();
+    private static void delete(File f) throws Exception {
+        if (f.isDirectory()) {
+            for (File c : f.listFiles())
+            delete(c);
+        }
+        if (!f.delete())
+            throw new Exception("Failed to delete file: " + f);
     }
 
     @Override
@@ -0,0 +1,67 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package controllers;
+
+import helpers.Metrics;
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+@WebServlet(name = "MetricsServlet", urlPatterns = {"/metrics"})
+public class MetricsServlet extends HttpServlet
+{
+    protected void processRequest(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        StringBuilder out = new StringBuilder(16384);
+        Metrics.Write(out);
+
+        out.append("# HELP example_compression_responses_total Responses compressed by the compression filter\n");
+        out.append("# TYPE example_compression_responses_total counter\n");
+        out.append("example_compression_responses_total ").append(CompressionFilter.GetResponses()).append('\n');
+        out.append("# HELP example_compression_bytes_total Bytes before and after the compression filter\n");
+        out.append("# TYPE example_compression_bytes_total counter\n");
+        out.append("example_compression_bytes_total{stage=\"in\"} ").append(CompressionFilter.GetBytesIn()).append('\n');
+        out.append("example_compression_bytes_total{stage=\"out\"} ").append(CompressionFilter.GetBytesOut()).append('\n');
+        out.append("# HELP example_compression_cpu_seconds_total Thread CPU time spent compressing\n");
+        out.append("# TYPE example_compression_cpu_seconds_total counter\n");
+        out.append("example_compression_cpu_seconds_total ").append(CompressionFilter.GetCpuNanos() / 1e9).append('\n');
+
+        response.setContentType("text/plain; version=0.0.4");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-store");
+        response.getWriter().write(out.toString());
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        processRequest(request, response);
+    }
+
+    @Override
+    public String getServletInfo()
+    {
+        return "Metrics";
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package controllers;
+
+import helpers.ConfigManager;
+import helpers.FlightEvents;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+//records the live node for the requested number of seconds and returns the .jfr file
+@WebServlet(name = "RecordingServlet", urlPatterns = {"/RecordingServlet"})
+public class RecordingServlet extends HttpServlet
+{
+    private static final int DefaultDuration = 30;
+    private static final int MaxDuration = 600;
+
+    private static final AtomicBoolean Running = new AtomicBoolean();
+
+    protected void processRequest(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        if (!ConfigManager.Get().recordingEnabled || !FlightEvents.IsAvailable())
+        {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        int duration = DefaultDuration;
+        try
+        {
+            duration = Math.max(1, Math.min(Integer.parseInt(request.getParameter("duration")), MaxDuration));
+        }
+        catch (Exception ex)
+        {
+        }
+
+        String settings = request.getParameter("settings");
+        if (settings == null || settings.isEmpty()) settings = "profile";
+
+        //one recording at a time is enough to profile a node and keeps the endpoint from piling up threads
+        if (!Running.compareAndSet(false, true))
+        {
+            response.sendError(HttpServletResponse.SC_CONFLICT, "A recording is already running");
+            return;
+        }
+
+        Path file = null;
+        try
+        {
+            file = Files.createTempFile("recording", ".jfr");
+            FlightEvents.Record(settings, duration * 1000L, file);
+
+            response.setContentType("application/octet-stream");
+            response.setHeader("Content-Disposition", "attachment; filename=\"recording-" + System.currentTimeMillis() + ".jfr\"");
+            response.setContentLengthLong(Files.size(file));
+            Files.copy(file, response.getOutputStream());
+        }
+        catch (IllegalArgumentException ex)
+        {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+        catch (Exception ex)
+        {
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, ex.getMessage());
+        }
+        finally
+        {
+            if (file != null) Files.deleteIfExists(file);
+            Running.set(false);
+        }
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        processRequest(request, response);
+    }
+
+    @Override
+    public String getServletInfo()
+    {
+        return "Flight recording";
+    }
+}
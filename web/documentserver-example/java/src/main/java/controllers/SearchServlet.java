@@ -0,0 +1,100 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package controllers;
+
+import com.google.gson.Gson;
+import helpers.DocumentContext;
+import helpers.DocumentManager;
+import helpers.Metrics;
+import helpers.SearchIndex;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+//ranked documents of the user that contain the words of the query, with a snippet of the text around them
+@WebServlet(name = "SearchServlet", urlPatterns = {"/SearchServlet"})
+public class SearchServlet extends HttpServlet
+{
+    private static final int DefaultLimit = 20;
+    private static final int MaxLimit = 100;
+
+    protected void processRequest(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        if (!SearchIndex.IsEnabled())
+        {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        DocumentContext context = DocumentManager.Init(request, response);
+
+        String query = request.getParameter("query");
+        int limit = DefaultLimit;
+        try
+        {
+            limit = Math.max(1, Math.min(Integer.parseInt(request.getParameter("limit")), MaxLimit));
+        }
+        catch (Exception ex)
+        {
+        }
+
+        long start = System.nanoTime();
+        SearchIndex.Results results = SearchIndex.Search(context, query == null ? "" : query, limit);
+
+        Map<String, Object> result = new HashMap<String, Object>();
+        result.put("results", results.results);
+        result.put("total", results.total);
+        result.put("took", (System.nanoTime() - start) / 1000000.0);
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-store");
+        response.getWriter().write(new Gson().toJson(result));
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        long start = System.nanoTime();
+        Metrics.ActiveRequests.Increment();
+        try
+        {
+            processRequest(request, response);
+        }
+        finally
+        {
+            Metrics.ActiveRequests.Decrement();
+            Metrics.SearchTime.RecordSince(start);
+        }
+    }
+
+    @Override
+    public String getServletInfo()
+    {
+        return "Document search";
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package controllers;
+
+import helpers.DocumentContext;
+import helpers.DocumentManager;
+import helpers.Metrics;
+import helpers.Thumbnails;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+//the first page image of a document, the file list adds the modification time to the url, so the browser may keep
+//an image for as long as it likes and only asks again with the ETag when the document was saved
+@WebServlet(name = "ThumbnailServlet", urlPatterns = {"/ThumbnailServlet"})
+public class ThumbnailServlet extends HttpServlet
+{
+    protected void processRequest(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        DocumentContext context = DocumentManager.Init(request, response);
+
+        String fileName = request.getParameter("fileName");
+        File document = fileName == null || fileName.isEmpty() ? null : new File(DocumentManager.StoragePath(context, fileName, null));
+        if (document == null || !document.getName().equals(fileName) || !document.isFile())
+        {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        String etag = "\"" + Thumbnails.GetKey(context, fileName) + "\"";
+        if (etag.equals(request.getHeader("If-None-Match")))
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        File thumbnail = Thumbnails.Get(context, fileName);
+        if (thumbnail == null)
+        {
+            //documents stored before the pipeline or while it was busy get their image on the first look, one the
+            //converter failed on is not queued again before thumbnail-retry-after
+            Thumbnails.Queue(context, fileName, Thumbnails.Visible);
+            response.setHeader("Cache-Control", "no-store");
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        response.setContentType("image/png");
+        response.setHeader("ETag", etag);
+        response.setHeader("Cache-Control", "private, max-age=31536000");
+        response.setContentLengthLong(thumbnail.length());
+        Files.copy(thumbnail.toPath(), response.getOutputStream());
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            processRequest(request, response);
+        }
+        finally
+        {
+            Metrics.ThumbnailTime.RecordSince(start);
+        }
+    }
+
+    @Override
+    public String getServletInfo()
+    {
+        return "Document thumbnail";
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package entities;
+
+public class FileFormat
+{
+    public final String extension;
+    public final FileType type;
+    public final boolean viewable;
+    public final boolean editable;
+    public final boolean convertible;
+    public final String internalExtension;
+
+    public FileFormat(String extension, FileType type, boolean viewable, boolean editable, boolean convertible, String internalExtension)
+    {
+        this.extension = extension;
+        this.type = type;
+        this.viewable = viewable;
+        this.editable = editable;
+        this.convertible = convertible;
+        this.internalExtension = internalExtension;
+    }
+
+    public boolean IsSupported()
+    {
+        return viewable || editable || convertible;
+    }
+}
@@ -18,24 +18,16 @@
 
 package entities;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Scanner;
-import java.util.Set;
 
+import helpers.DocumentContext;
 import helpers.DocumentManager;
-import helpers.ServiceConverter;
+import helpers.HistoryManager;
 import helpers.FileUtility;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
-
 public class FileModel
 {
     public String type = "desktop";
@@ -44,28 +36,31 @@ public class FileModel
     public Document document;
     public EditorConfig editorConfig;
     public String token;
+    private transient DocumentContext context;
 
-    public FileModel(String fileName, String lang, String uid, String uname, String actionData)
+    public FileModel(DocumentContext context, String fileName, String lang, String uid, String uname, String actionData)
     {
         if (fileName == null) fileName = "";
         fileName = fileName.trim();
 
+        this.context = context;
+
         documentType = FileUtility.GetFileType(fileName).toString().toLowerCase();
 
         document = new Document();
         document.title = fileName;
-        document.url = DocumentManager.GetFileUri(fileName);
+        document.url = DocumentManager.GetFileUri(context, fileName);
         document.fileType = FileUtility.GetFileExtension(fileName).replace(".", "");
-        document.key = ServiceConverter.GenerateRevisionId(DocumentManager.CurUserHostAddress(null) + "/" + fileName + "/" + Long.toString(new File(DocumentManager.StoragePath(fileName, null)).lastModified()));
+        document.key = DocumentManager.GetDocumentKey(context, fileName, null);
 
         editorConfig = new EditorConfig(actionData);
-        editorConfig.callbackUrl = DocumentManager.GetCallback(fileName);
+        editorConfig.callbackUrl = DocumentManager.GetCallback(context, fileName);
         if (lang != null) editorConfig.lang = lang;
 
         if (uid != null) editorConfig.user.id = uid;
         if (uname != null) editorConfig.user.name = uname;
 
-        editorConfig.customization.goback.url = DocumentManager.GetServerUrl() + "/IndexServlet";
+        editorConfig.customization.goback.url = context.GetServerUrl() + "/IndexServlet";
 
         changeType(mode, type);
     }
@@ -75,7 +70,8 @@ public class FileModel
         if (_mode != null) mode = _mode;
         if (_type != null) type = _type;
 
-        Boolean canEdit = DocumentManager.GetEditedExts().contains(FileUtility.GetFileExtension(document.title));
+        FileFormat format = FileUtility.GetFileFormat(document.title);
+        Boolean canEdit = format != null && format.editable;
 
         editorConfig.mode = canEdit && !mode.equals("view") ? "edit" : "view";
 
@@ -100,91 +96,9 @@ public class FileModel
         token = DocumentManager.CreateToken(map);
     }
 
-    public String[] GetHistory()
+    public Boolean HasHistory()
     {
-        JSONParser parser = new JSONParser();
-        String histDir = DocumentManager.HistoryDir(DocumentManager.StoragePath(document.title, null));
-        if (DocumentManager.GetFileVersion(histDir) > 0) {
-            Integer curVer = DocumentManager.GetFileVersion(histDir);
-
-            Set<Object> hist = new HashSet<Object>();
-            Map<String, Object> histData = new HashMap<String, Object>();
-
-            for (Integer i = 0; i <= curVer; i++) {
-                Map<String, Object> obj = new HashMap<String, Object>();
-                Map<String, Object> dataObj = new HashMap<String, Object>();
-                String verDir = DocumentManager.VersionDir(histDir, i + 1);
-
-                try {
-                    String key = null;
-
-                    key = i == curVer ? document.key : readFileToEnd(new File(verDir + File.separator + "key.txt"));
-
-                    obj.put("key", key);
-                    obj.put("version", i);
-
-                    if (i == 0) {
-                        String createdInfo = readFileToEnd(new File(histDir + File.separator + "createdInfo.json"));
-                        JSONObject json = (JSONObject) parser.parse(createdInfo);
-
-                        obj.put("created", json.get("created"));
-                        Map<String, Object> user = new HashMap<String, Object>();
-                        user.put("id", json.get("id"));
-                        user.put("name", json.get("name"));
-                        obj.put("user", user);
-                    }
-
-                    dataObj.put("key", key);
-                    dataObj.put("url", i == curVer ? document.url : DocumentManager.GetPathUri(verDir + File.separator + "prev" + FileUtility.GetFileExtension(document.title)));
-                    dataObj.put("version", i);
-
-                    if (i > 0) {
-                        JSONObject changes = (JSONObject) parser.parse(readFileToEnd(new File(DocumentManager.VersionDir(histDir, i) + File.separator + "changes.json")));
-                        JSONObject change = (JSONObject) ((JSONArray) changes.get("changes")).get(0);
-
-                        obj.put("changes", changes.get("changes"));
-                        obj.put("serverVersion", changes.get("serverVersion"));
-                        obj.put("created", change.get("created"));
-                        obj.put("user", change.get("user"));
-
-                        Map<String, Object> prev = (Map<String, Object>) histData.get(Integer.toString(i - 1));
-                        Map<String, Object> prevInfo = new HashMap<String, Object>();
-                        prevInfo.put("key", prev.get("key"));
-                        prevInfo.put("url", prev.get("url"));
-                        dataObj.put("previous", prevInfo);
-                        dataObj.put("changesUrl", DocumentManager.GetPathUri(DocumentManager.VersionDir(histDir, i) + File.separator + "diff.zip"));
-                    }
-
-                    hist.add(obj);
-                    histData.put(Integer.toString(i), dataObj);
-
-                } catch (Exception ex) { }
-            }
-
-            Map<String, Object> histObj = new HashMap<String, Object>();
-            histObj.put("currentVersion", curVer);
-            histObj.put("history", hist);
-
-            Gson gson = new Gson();
-            return new String[] { gson.toJson(histObj), gson.toJson(histData) };
-        }
-        return new String[] { "", "" };
-    }
-
-    private String readFileToEnd(File file) {
-        String output = "";
-        try {
-            try(FileInputStream is = new FileInputStream(file))
-            {
-                Scanner scanner = new Scanner(is);
-                scanner.useDelimiter("\\A");
-                while (scanner.hasNext()) {
-                    output += scanner.next();
-                }
-                scanner.close();
-            }
-        } catch (Exception e) { }
-        return output;
+        return HistoryManager.HasHistory(DocumentManager.HistoryDir(DocumentManager.StoragePath(context, document.title, null)));
     }
 
     public class Document
@@ -0,0 +1,221 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package helpers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+//build step: copies the scripts, styles and images under fingerprinted names with the precompressed variants next to them
+public class AssetBuilder
+{
+    private static final String[] Folders = { "css/img", "css", "scripts" };
+    private static final List<String> TextExts = Arrays.asList(".js", ".css", ".svg");
+    private static final int MinCompressSize = 1024;
+
+    private static final Pattern CssUrl = Pattern.compile("url\\(\\s*([\"']?)([^\"')]+)\\1\\s*\\)");
+
+    //usage: AssetBuilder <webapp source> <output>
+    public static void main(String[] args) throws Exception
+    {
+        File source = new File(args[0]);
+        File output = new File(args[1]);
+
+        boolean brotli = HasBrotli();
+        if (!brotli)
+        {
+            System.out.println("brotli is not found, only gzip variants are written");
+        }
+
+        Map<String, String> manifest = new TreeMap<String, String>();
+
+        //images go first, so that the styles can refer to their fingerprinted names
+        for (String folder : Folders)
+        {
+            File[] files = new File(source, folder).listFiles();
+            if (files == null) continue;
+            Arrays.sort(files);
+
+            for (File file : files)
+            {
+                if (!file.isFile()) continue;
+
+                String path = folder + "/" + file.getName();
+                byte[] content = Files.readAllBytes(file.toPath());
+
+                if (path.endsWith(".css"))
+                {
+                    content = RewriteUrls(new String(content, StandardCharsets.UTF_8), folder, manifest).getBytes(StandardCharsets.UTF_8);
+                }
+
+                String fingerprinted = folder + "/" + Fingerprint(file.getName(), content);
+                File target = new File(output, fingerprinted);
+                target.getParentFile().mkdirs();
+                Files.write(target.toPath(), content);
+
+                StringBuilder entry = new StringBuilder(fingerprinted);
+                if (IsText(path) && content.length >= MinCompressSize)
+                {
+                    if (brotli && Brotli(target))
+                    {
+                        entry.append("|br");
+                    }
+                    if (Gzip(target, content))
+                    {
+                        entry.append("|gzip");
+                    }
+                }
+
+                manifest.put(path, entry.toString());
+            }
+        }
+
+        StringBuilder properties = new StringBuilder();
+        for (Map.Entry<String, String> entry : manifest.entrySet())
+        {
+            properties.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+        }
+
+        File manifestFile = new File(output, StaticAssets.ManifestPath);
+        manifestFile.getParentFile().mkdirs();
+        Files.write(manifestFile.toPath(), properties.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+        System.out.println(manifest.size() + " assets written to " + output);
+    }
+
+    private static boolean IsText(String path)
+    {
+        String lower = path.toLowerCase();
+        for (String ext : TextExts)
+        {
+            if (lower.endsWith(ext)) return true;
+        }
+        return false;
+    }
+
+    //name.<first 10 hex digits of sha-256>.ext
+    private static String Fingerprint(String name, byte[] content) throws Exception
+    {
+        byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+        StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < 5; i++)
+        {
+            hex.append(String.format("%02x", hash[i]));
+        }
+
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? name + "." + hex : name.substring(0, dot) + "." + hex + name.substring(dot);
+    }
+
+    private static String RewriteUrls(String css, String folder, Map<String, String> manifest)
+    {
+        Matcher matcher = CssUrl.matcher(css);
+        StringBuffer result = new StringBuffer();
+
+        while (matcher.find())
+        {
+            String url = matcher.group(2);
+            String entry = manifest.get(folder + "/" + url);
+
+            if (entry != null)
+            {
+                String fingerprinted = entry.split("\\|")[0].substring(folder.length() + 1);
+                url = matcher.group(0).replace(url, fingerprinted);
+            }
+            else
+            {
+                url = matcher.group(0);
+            }
+
+            matcher.appendReplacement(result, Matcher.quoteReplacement(url));
+        }
+        matcher.appendTail(result);
+
+        return result.toString();
+    }
+
+    private static boolean Gzip(File target, byte[] content) throws IOException
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)
+            {
+                {
+                    def.setLevel(Deflater.BEST_COMPRESSION);
+                }
+            })
+        {
+            gzip.write(content);
+        }
+
+        //a variant that does not save anything is not worth the negotiation
+        if (compressed.size() >= content.length) return false;
+
+        try (OutputStream out = new FileOutputStream(target.getPath() + ".gz"))
+        {
+            compressed.writeTo(out);
+        }
+        return true;
+    }
+
+    private static boolean HasBrotli()
+    {
+        return Run(Arrays.asList("brotli", "--version"));
+    }
+
+    private static boolean Brotli(File target)
+    {
+        File compressed = new File(target.getPath() + ".br");
+        if (!Run(Arrays.asList("brotli", "--best", "--force", "--output=" + compressed.getPath(), target.getPath()))) return false;
+
+        if (compressed.length() >= target.length())
+        {
+            compressed.delete();
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean Run(List<String> command)
+    {
+        try
+        {
+            Process process = new ProcessBuilder(new ArrayList<String>(command)).redirectErrorStream(true).start();
+            process.getInputStream().close();
+            return process.waitFor() == 0;
+        }
+        catch (Exception ex)
+        {
+            return false;
+        }
+    }
+}
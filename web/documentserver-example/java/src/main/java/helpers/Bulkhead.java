@@ -0,0 +1,80 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package helpers;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+//a bounded executor of one kind of request, so that a burst of one action cannot take the threads of the others
+public class Bulkhead
+{
+    private final ThreadPoolExecutor executor;
+    private final Metrics.Gauge queued;
+    private final Metrics.Counter rejected;
+
+    private Bulkhead(String name, int threads, int queue, Metrics.Gauge queued, Metrics.Counter rejected)
+    {
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(queue, 1)), IoExecutor.NewThreadFactory("bulkhead-" + name, Thread.NORM_PRIORITY));
+        this.executor.allowCoreThreadTimeOut(true);
+        this.queued = queued;
+        this.rejected = rejected;
+    }
+
+    //bulkhead-<name>-threads and bulkhead-<name>-queue of the settings, null when the action has no bulkhead
+    public static Bulkhead Create(String name, Metrics.Gauge queued, Metrics.Counter rejected)
+    {
+        ConfigManager.Config config = ConfigManager.Get();
+        int threads = (int) config.GetLong("bulkhead-" + name + "-threads", 0);
+        int queue = (int) config.GetLong("bulkhead-" + name + "-queue", 0);
+
+        return threads > 0 ? new Bulkhead(name, threads, queue, queued, rejected) : null;
+    }
+
+    //false when the threads are busy and the queue is full, the request should be turned away then
+    public boolean Submit(final Runnable task)
+    {
+        queued.Increment();
+        try
+        {
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    queued.Decrement();
+                    task.run();
+                }
+            });
+            return true;
+        }
+        catch (RejectedExecutionException ex)
+        {
+            queued.Decrement();
+            rejected.Increment();
+            return false;
+        }
+    }
+
+    public void Shutdown()
+    {
+        executor.shutdown();
+    }
+}
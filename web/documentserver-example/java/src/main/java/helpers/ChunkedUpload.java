@@ -0,0 +1,349 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package helpers;
+
+import entities.FileFormat;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+//resumable uploads in chunks of a fixed size, the chunks may come in any order and in parallel and are written
+//in place into a temporary file next to the storage, the file is only named and stored once all of them are there.
+//<id>.meta keeps what the upload is and <id>.chunks a byte for every chunk that is there, so an upload is resumed
+//after a restart as well
+public class ChunkedUpload
+{
+    private static final String UploadsFolder = ".uploads";
+    private static final long IdleTimeout = TimeUnit.HOURS.toMillis(24);
+    private static final String Part = ".part";
+    private static final String Meta = ".meta";
+    private static final String Chunks = ".chunks";
+
+    private static final ConcurrentHashMap<String, Session> Sessions = new ConcurrentHashMap<String, Session>();
+
+    public static class Session
+    {
+        public final String id;
+        public final String fileName;
+        public final long size;
+        public final int chunkSize;
+        public final int chunks;
+
+        private final String hostAddress;
+        private final Path temp;
+        private final FileChannel channel;
+        private final FileChannel marks;
+        private final BitSet received;
+        private volatile long touched = System.currentTimeMillis();
+        private boolean finished;
+
+        private Session(String id, String fileName, long size, int chunkSize, String hostAddress, Path temp, boolean create) throws IOException
+        {
+            this.id = id;
+            this.fileName = fileName;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.chunks = (int) ((size + chunkSize - 1) / chunkSize);
+            this.hostAddress = hostAddress;
+            this.temp = temp;
+            this.received = new BitSet(chunks);
+
+            StandardOpenOption open = create ? StandardOpenOption.CREATE_NEW : StandardOpenOption.WRITE;
+            this.channel = FileChannel.open(temp, open, StandardOpenOption.WRITE);
+            try
+            {
+                this.marks = FileChannel.open(GetFile(temp, Chunks), open, StandardOpenOption.WRITE);
+            }
+            catch (IOException ex)
+            {
+                channel.close();
+                throw ex;
+            }
+        }
+
+        //the length the chunk of the index must have, only the last one is shorter
+        public int ChunkLength(int index)
+        {
+            return (int) Math.min(chunkSize, size - (long) index * chunkSize);
+        }
+
+        public synchronized int GetReceived()
+        {
+            return received.cardinality();
+        }
+
+        //the offset up to which the file is complete, for the clients that upload in order
+        public synchronized long GetOffset()
+        {
+            int next = received.nextClearBit(0);
+            return next >= chunks ? size : (long) next * chunkSize;
+        }
+
+        public synchronized List<Integer> GetMissing()
+        {
+            List<Integer> missing = new ArrayList<Integer>();
+            for (int i = received.nextClearBit(0); i < chunks; i = received.nextClearBit(i + 1))
+            {
+                missing.add(i);
+            }
+            return missing;
+        }
+
+        private synchronized void Close()
+        {
+            finished = true;
+            try
+            {
+                channel.close();
+                marks.close();
+            }
+            catch (IOException ex)
+            {
+            }
+        }
+    }
+
+    public static int GetChunkSize()
+    {
+        return (int) ConfigManager.Get().GetLong("upload-chunk-size", 1024 * 1024);
+    }
+
+    public static long GetMaxSize()
+    {
+        return ConfigManager.Get().GetLong("upload-max-size", 100 * 1024 * 1024);
+    }
+
+    //the uploads an earlier run left behind are removed at startup
+    public static void Init(String storageRoot)
+    {
+        Expire(Paths.get(storageRoot, UploadsFolder));
+    }
+
+    public static Session Start(DocumentContext context, String fileName, long size) throws Exception
+    {
+        Path folder = Paths.get(context.GetStorageRoot(), UploadsFolder);
+        Expire(folder);
+
+        if (fileName == null || fileName.trim().isEmpty()) throw new Exception("File name is empty");
+        if (size <= 0 || size > GetMaxSize()) throw new Exception("File size is incorrect");
+
+        FileFormat format = FileUtility.GetFileFormat(fileName);
+        if (format == null || !format.IsSupported()) throw new Exception("File type is not supported");
+
+        Files.createDirectories(folder);
+
+        String id = UUID.randomUUID().toString().replace("-", "");
+        Session session = new Session(id, Paths.get(fileName.trim()).getFileName().toString(), size, GetChunkSize(),
+                context.GetHostAddress(), folder.resolve(id + Part), true);
+
+        //the meta is written last, an upload without it is not resumed
+        Properties meta = new Properties();
+        meta.setProperty("name", session.fileName);
+        meta.setProperty("size", Long.toString(session.size));
+        meta.setProperty("chunkSize", Integer.toString(session.chunkSize));
+        meta.setProperty("host", session.hostAddress);
+        try (OutputStream stream = Files.newOutputStream(GetFile(session.temp, Meta)))
+        {
+            meta.store(stream, null);
+        }
+        catch (IOException ex)
+        {
+            Abort(session);
+            throw ex;
+        }
+
+        Sessions.put(id, session);
+        return session;
+    }
+
+    //the session of the id, only for the storage folder it was started in
+    public static Session Get(DocumentContext context, String id)
+    {
+        Session session = id == null ? null : Sessions.get(id);
+        if (session == null && id != null && id.matches("[0-9a-f]{32}"))
+        {
+            session = Load(Paths.get(context.GetStorageRoot(), UploadsFolder, id + Part));
+        }
+        if (session == null || !session.hostAddress.equals(context.GetHostAddress())) return null;
+
+        session.touched = System.currentTimeMillis();
+        return session;
+    }
+
+    //a session of an earlier run, read back from the files next to its part
+    private static Session Load(Path temp)
+    {
+        Path meta = GetFile(temp, Meta);
+        if (!Files.exists(meta)) return null;
+
+        try (InputStream stream = Files.newInputStream(meta))
+        {
+            Properties properties = new Properties();
+            properties.load(stream);
+
+            String id = temp.getFileName().toString();
+            id = id.substring(0, id.length() - Part.length());
+            Session session = new Session(id, properties.getProperty("name"), Long.parseLong(properties.getProperty("size")),
+                    Integer.parseInt(properties.getProperty("chunkSize")), properties.getProperty("host"), temp, false);
+
+            byte[] marks = Files.readAllBytes(GetFile(temp, Chunks));
+            for (int i = 0; i < session.chunks && i < marks.length; i++)
+            {
+                if (marks[i] != 0) session.received.set(i);
+            }
+
+            Session existing = Sessions.putIfAbsent(id, session);
+            if (existing != null)
+            {
+                session.Close();
+                return existing;
+            }
+            return session;
+        }
+        catch (Exception ex)
+        {
+            return null;
+        }
+    }
+
+    private static Path GetFile(Path temp, String extension)
+    {
+        String name = temp.getFileName().toString();
+        return temp.resolveSibling(name.substring(0, name.length() - Part.length()) + extension);
+    }
+
+    //writes the chunk of the index at its offset, a chunk that is sent again just overwrites the same bytes
+    public static void Write(Session session, int index, InputStream body, String crc32) throws Exception
+    {
+        if (index < 0 || index >= session.chunks) throw new Exception("Chunk index is incorrect");
+
+        int length = session.ChunkLength(index);
+        byte[] bytes = new byte[length];
+        int read = 0;
+        int count;
+        while (read < length && (count = body.read(bytes, read, length - read)) != -1)
+        {
+            read += count;
+        }
+        if (read != length || body.read() != -1) throw new Exception("Chunk size is incorrect");
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        if (crc32 == null || Long.parseLong(crc32, 16) != crc.getValue()) throw new Exception("Chunk checksum is incorrect");
+
+        //positional writes do not move the position of the channel, so the chunks do not wait for each other
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long position = (long) index * session.chunkSize;
+        while (buffer.hasRemaining())
+        {
+            position += session.channel.write(buffer, position);
+        }
+
+        synchronized (session)
+        {
+            if (session.finished) throw new Exception("Upload is finished");
+            session.marks.write(ByteBuffer.wrap(new byte[] { 1 }), index);
+            session.received.set(index);
+        }
+        Metrics.BytesUploaded.Add(length);
+    }
+
+    //the complete temporary file, the caller moves it to the storage, null when chunks are missing
+    public static Path Finish(Session session) throws Exception
+    {
+        synchronized (session)
+        {
+            if (session.finished) throw new Exception("Upload is finished");
+            if (session.received.cardinality() < session.chunks) return null;
+
+            session.channel.force(true);
+            session.Close();
+        }
+
+        Sessions.remove(session.id, session);
+        Files.deleteIfExists(GetFile(session.temp, Meta));
+        Files.deleteIfExists(GetFile(session.temp, Chunks));
+        return session.temp;
+    }
+
+    public static void Abort(Session session) throws IOException
+    {
+        Sessions.remove(session.id, session);
+        session.Close();
+        Files.deleteIfExists(GetFile(session.temp, Meta));
+        Files.deleteIfExists(GetFile(session.temp, Chunks));
+        Files.deleteIfExists(session.temp);
+    }
+
+    //the uploads that were left behind are removed when a new one starts, an upload is as recent
+    //as the last of its files was written or its session was used
+    private static void Expire(Path folder)
+    {
+        File[] files = folder.toFile().listFiles();
+        if (files == null) return;
+
+        Map<String, Long> touched = new HashMap<String, Long>();
+        for (File file : files)
+        {
+            String name = file.getName();
+            String id = name.indexOf('.') > 0 ? name.substring(0, name.indexOf('.')) : name;
+            Long last = touched.get(id);
+            touched.put(id, Math.max(last == null ? 0 : last, file.lastModified()));
+        }
+
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Long> upload : touched.entrySet())
+        {
+            Session session = Sessions.get(upload.getKey());
+            long last = session == null ? upload.getValue() : Math.max(upload.getValue(), session.touched);
+            if (now - last <= IdleTimeout) continue;
+
+            try
+            {
+                if (session != null)
+                {
+                    Abort(session);
+                }
+                for (String extension : new String[] { Part, Meta, Chunks })
+                {
+                    Files.deleteIfExists(folder.resolve(upload.getKey() + extension));
+                }
+            }
+            catch (IOException ex)
+            {
+            }
+        }
+    }
+}
@@ -18,12 +18,35 @@
 
 package helpers;
 
+import java.io.File;
 import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class ConfigManager
 {
-    private static Properties properties;
+    private static final String SettingsFile = "settings.properties";
+    private static final long ReloadDelay = 500;
+
+    //a reload that drops one of these keys is taken for a file read while it was written and is ignored,
+    //an empty secret would turn the token checks off and a missing url would send requests nowhere
+    private static final String[] RequiredKeys = {
+        "storage-folder", "files.docservice.timeout", "files.docservice.url.converter", "files.docservice.url.tempstorage",
+        "files.docservice.url.api", "files.docservice.secret", "files.docservice.header" };
+
+    private static volatile Config config;
+    private static WatchService watcher;
 
     static
     {
@@ -32,27 +55,243 @@ public class ConfigManager
 
     private static void Init()
     {
+        Properties properties;
+
         try
         {
             properties = new Properties();
-            InputStream stream = Thread.currentThread().getContextClassLoader().getResourceAsStream("settings.properties");
+            InputStream stream = Thread.currentThread().getContextClassLoader().getResourceAsStream(SettingsFile);
             properties.load(stream);
         }
         catch (Exception ex)
         {
             properties = null;
         }
+
+        config = new Config(properties);
+    }
+
+    public static Config Get()
+    {
+        return config;
     }
 
     public static String GetProperty(String name)
     {
-        if (properties == null)
+        return config.GetProperty(name);
+    }
+
+    //settings are replaced as a whole, so readers always see a consistent snapshot
+    public static boolean Reload()
+    {
+        try (InputStream stream = Thread.currentThread().getContextClassLoader().getResourceAsStream(SettingsFile))
+        {
+            Properties properties = new Properties();
+            properties.load(stream);
+
+            Config current = config;
+            for (String name : RequiredKeys)
+            {
+                if (!current.GetProperty(name).trim().isEmpty() && properties.getProperty(name, "").trim().isEmpty())
+                {
+                    return false;
+                }
+            }
+            if (!properties.getProperty("files.docservice.timeout", "").trim().matches("\\d*"))
+            {
+                return false;
+            }
+
+            config = new Config(properties);
+            return true;
+        }
+        catch (Exception ex)
         {
-            return "";
+            return false;
         }
+    }
 
-        String property = properties.getProperty(name);
+    public static synchronized void Watch()
+    {
+        if (watcher != null) return;
+
+        try
+        {
+            URL url = Thread.currentThread().getContextClassLoader().getResource(SettingsFile);
+            if (url == null || !"file".equals(url.getProtocol())) return;
+
+            final Path settings = new File(url.toURI()).toPath();
+            final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            final WatchService service = FileSystems.getDefault().newWatchService();
+            settings.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watcher = service;
 
-        return property == null ? "" : property;
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    Thread.currentThread().setContextClassLoader(loader);
+                    try
+                    {
+                        boolean valid = true;
+                        while (valid)
+                        {
+                            WatchKey key = service.take();
+                            boolean changed = Changed(key, settings);
+                            valid = key.reset();
+
+                            //an editor writes the file in several steps, so it is read once the events have stopped
+                            while (changed && valid)
+                            {
+                                key = service.poll(ReloadDelay, TimeUnit.MILLISECONDS);
+                                if (key == null) break;
+                                Changed(key, settings);
+                                valid = key.reset();
+                            }
+
+                            if (changed)
+                            {
+                                Reload();
+                            }
+                        }
+                    }
+                    catch (InterruptedException | ClosedWatchServiceException ex)
+                    {
+                    }
+                }
+            }, "settings-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        catch (Exception ex)
+        {
+        }
+    }
+
+    private static boolean Changed(WatchKey key, Path settings)
+    {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents())
+        {
+            Object context = event.context();
+            if (context instanceof Path && settings.getFileName().equals(context))
+            {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    public static synchronized void StopWatch()
+    {
+        if (watcher == null) return;
+
+        try
+        {
+            watcher.close();
+        }
+        catch (Exception ex)
+        {
+        }
+        watcher = null;
+    }
+
+    public static class Config
+    {
+        private final Properties properties;
+
+        public final Set<String> viewedExts;
+        public final Set<String> editedExts;
+        public final Set<String> convertExts;
+        public final Set<String> fileExts;
+
+        public final long maxFileSize;
+        public final String storageFolder;
+        public final int editorCacheSize;
+        public final int editorCacheVariants;
+        public final boolean sniffFormats;
+        public final int compressionMinSize;
+        public final boolean recordingEnabled;
+        public final String ioThreads;
+
+        public final int timeout;
+        public final String converterUrl;
+        public final String tempStorageUrl;
+        public final String apiUrl;
+        public final String preloaderUrl;
+        public final String secret;
+        public final String header;
+
+        private Config(Properties properties)
+        {
+            this.properties = properties;
+
+            viewedExts = GetSet("files.docservice.viewed-docs");
+            editedExts = GetSet("files.docservice.edited-docs");
+            convertExts = GetSet("files.docservice.convert-docs");
+
+            Set<String> exts = new LinkedHashSet<String>();
+            exts.addAll(viewedExts);
+            exts.addAll(editedExts);
+            exts.addAll(convertExts);
+            fileExts = Collections.unmodifiableSet(exts);
+
+            long size = GetLong("filesize-max", 0);
+            maxFileSize = size > 0 ? size : 5 * 1024 * 1024;
+            storageFolder = GetProperty("storage-folder");
+            editorCacheSize = (int) GetLong("editor-cache-size", 1000);
+            editorCacheVariants = (int) GetLong("editor-cache-variants", 16);
+            sniffFormats = "true".equalsIgnoreCase(GetProperty("sniff-formats").trim());
+            compressionMinSize = (int) GetLong("compression-min-size", 1024);
+            recordingEnabled = "true".equalsIgnoreCase(GetProperty("recording-enabled").trim());
+            ioThreads = GetProperty("io-threads").trim().isEmpty() ? IoExecutor.Platform : GetProperty("io-threads").trim();
+
+            int convertTimeout = (int) GetLong("files.docservice.timeout", 0);
+            timeout = convertTimeout > 0 ? convertTimeout : 120000;
+            converterUrl = GetProperty("files.docservice.url.converter");
+            tempStorageUrl = GetProperty("files.docservice.url.tempstorage");
+            apiUrl = GetProperty("files.docservice.url.api");
+            preloaderUrl = GetProperty("files.docservice.url.preloader");
+            secret = GetProperty("files.docservice.secret");
+            header = GetProperty("files.docservice.header").isEmpty() ? "Authorization" : GetProperty("files.docservice.header");
+        }
+
+        public String GetProperty(String name)
+        {
+            if (properties == null)
+            {
+                return "";
+            }
+
+            String property = properties.getProperty(name);
+
+            return property == null ? "" : property;
+        }
+
+        public long GetLong(String name, long defaultValue)
+        {
+            try
+            {
+                return Long.parseLong(GetProperty(name).trim());
+            }
+            catch (Exception ex)
+            {
+                return defaultValue;
+            }
+        }
+
+        private Set<String> GetSet(String name)
+        {
+            Set<String> set = new LinkedHashSet<String>();
+            for (String value : GetProperty(name).split("\\|"))
+            {
+                if (!value.trim().isEmpty())
+                {
+                    set.add(value.trim().toLowerCase());
+                }
+            }
+            return Collections.unmodifiableSet(set);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,70 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package helpers;
+
+import java.io.File;
+import javax.servlet.http.HttpServletRequest;
+
+//values of the current request that the storage paths and document urls are built from
+public class DocumentContext
+{
+    private final String serverUrl;
+    private final String storageRoot;
+    private final String hostAddress;
+    private String filesRoot;
+
+    public DocumentContext(HttpServletRequest request)
+    {
+        this(request.getScheme() + "://" + request.getServerName() + ":" + request.getServerPort() + request.getContextPath(),
+                request.getServletContext().getRealPath("") + ConfigManager.Get().storageFolder + File.separator,
+                DocumentManager.CurUserHostAddress(null));
+    }
+
+    public DocumentContext(String serverUrl, String storageRoot, String hostAddress)
+    {
+        this.serverUrl = serverUrl;
+        this.storageRoot = storageRoot;
+        this.hostAddress = hostAddress;
+    }
+
+    public String GetServerUrl()
+    {
+        return serverUrl;
+    }
+
+    public String GetStorageRoot()
+    {
+        return storageRoot;
+    }
+
+    public String GetHostAddress()
+    {
+        return hostAddress;
+    }
+
+    public String GetFilesRoot()
+    {
+        if (filesRoot == null)
+        {
+            filesRoot = DocumentManager.FilesRootPath(this, null);
+        }
+
+        return filesRoot;
+    }
+}
@@ -25,13 +25,15 @@ import java.io.FileWriter;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
+import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
-import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import entities.FileType;
@@ -45,56 +47,67 @@ import org.primeframework.jwt.Verifier;
 
 public class DocumentManager
 {
-    private static HttpServletRequest request;
-
-    public static void Init(HttpServletRequest req, HttpServletResponse resp)
+    public static DocumentContext Init(HttpServletRequest request, HttpServletResponse response)
     {
-        request = req;
+        return new DocumentContext(request);
     }
 
     public static long GetMaxFileSize()
     {
-        long size;
-
-        try
-        {
-            size = Long.parseLong(ConfigManager.GetProperty("filesize-max"));
-        }
-        catch (Exception ex)
-        {
-            size = 0;
-        }
-
-        return size > 0 ? size : 5 * 1024 * 1024;
+        return ConfigManager.Get().maxFileSize;
     }
 
-    public static List<String> GetFileExts()
+    public static Set<String> GetFileExts()
     {
-        List<String> res = new ArrayList<>();
+        return ConfigManager.Get().fileExts;
+    }
 
-        res.addAll(GetViewedExts());
-        res.addAll(GetEditedExts());
-        res.addAll(GetConvertExts());
+    public static Set<String> GetViewedExts()
+    {
+        return ConfigManager.Get().viewedExts;
+    }
 
-        return res;
+    public static Set<String> GetEditedExts()
+    {
+        return ConfigManager.Get().editedExts;
     }
 
-    public static List<String> GetViewedExts()
+    public static Set<String> GetConvertExts()
     {
-        String exts = ConfigManager.GetProperty("files.docservice.viewed-docs");
-        return Arrays.asList(exts.split("\\|"));
+        return ConfigManager.Get().convertExts;
     }
 
-    public static List<String> GetEditedExts()
+    public static String GetDocumentKey(DocumentContext context, String fileName, String userAddress)
     {
-        String exts = ConfigManager.GetProperty("files.docservice.edited-docs");
-        return Arrays.asList(exts.split("\\|"));
+        String hostAddress = userAddress == null ? context.GetHostAddress() : CurUserHostAddress(userAddress);
+        long lastModified = new File(StoragePath(context, fileName, userAddress)).lastModified();
+
+        return ServiceConverter.GenerateRevisionId(hostAddress + "/" + fileName + "/" + Long.toString(lastModified));
     }
 
-    public static List<String> GetConvertExts()
+    //the document key is a 32 bit hash that two documents can share, what is kept for one document and served
+    //to anyone who asks by its name is named by the sha-256 of the same parts, with a suffix for one of its results
+    public static String GetContentKey(DocumentContext context, String fileName, String suffix)
     {
-        String exts = ConfigManager.GetProperty("files.docservice.convert-docs");
-        return Arrays.asList(exts.split("\\|"));
+        long lastModified = new File(StoragePath(context, fileName, null)).lastModified();
+        String value = context.GetHostAddress() + "/" + fileName + "/" + Long.toString(lastModified) + (suffix == null ? "" : "/" + suffix);
+
+        byte[] hash;
+        try
+        {
+            hash = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : hash)
+        {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
     }
 
     public static String CurUserHostAddress(String userAddress)
@@ -114,12 +127,10 @@ public class DocumentManager
         return userAddress.replaceAll("[^0-9a-zA-Z.=]", "_");
     }
 
-    public static String FilesRootPath(String userAddress)
+    public static String FilesRootPath(DocumentContext context, String userAddress)
     {
-        String hostAddress = CurUserHostAddress(userAddress);
-        String serverPath = request.getSession().getServletContext().getRealPath("");
-        String storagePath = ConfigManager.GetProperty("storage-folder");
-        String directory = serverPath + storagePath + File.separator + hostAddress + File.separator;
+        String hostAddress = userAddress == null ? context.GetHostAddress() : CurUserHostAddress(userAddress);
+        String directory = context.GetStorageRoot() + hostAddress + File.separator;
 
         File file = new File(directory);
 
@@ -131,9 +142,9 @@ public class DocumentManager
         return directory;
     }
 
-    public static String StoragePath(String fileName, String userAddress)
+    public static String StoragePath(DocumentContext context, String fileName, String userAddress)
     {
-        String directory = FilesRootPath(userAddress);
+        String directory = userAddress == null ? context.GetFilesRoot() : FilesRootPath(context, userAddress);
         return directory + fileName;
     }
 
@@ -147,9 +158,9 @@ public class DocumentManager
         return histPath + File.separator + Integer.toString(version);
     }
 
-    public static String VersionDir(String fileName, String userAddress, Integer version)
+    public static String VersionDir(DocumentContext context, String fileName, String userAddress, Integer version)
     {
-        return VersionDir(HistoryDir(StoragePath(fileName, userAddress)), version);
+        return VersionDir(HistoryDir(StoragePath(context, fileName, userAddress)), version);
     }
 
     public static Integer GetFileVersion(String historyPath)
@@ -168,31 +179,31 @@ public class DocumentManager
         return dirs.length;
     }
 
-    public static int GetFileVersion(String fileName, String userAddress)
+    public static int GetFileVersion(DocumentContext context, String fileName, String userAddress)
     {
-        return GetFileVersion(HistoryDir(StoragePath(fileName, userAddress)));
+        return GetFileVersion(HistoryDir(StoragePath(context, fileName, userAddress)));
     }
 
-    public static String GetCorrectName(String fileName)
+    public static String GetCorrectName(DocumentContext context, String fileName)
     {
         String baseName = FileUtility.GetFileNameWithoutExtension(fileName);
         String ext = FileUtility.GetFileExtension(fileName);
         String name = baseName + ext;
 
-        File file = new File(StoragePath(name, null));
+        File file = new File(StoragePath(context, name, null));
 
         for (int i = 1; file.exists(); i++)
         {
             name = baseName + " (" + i + ")" + ext;
-            file = new File(StoragePath(name, null));
+            file = new File(StoragePath(context, name, null));
         }
 
         return name;
     }
 
-    public static void CreateMeta(String fileName, String uid, String uname) throws Exception
+    public static void CreateMeta(DocumentContext context, String fileName, String uid, String uname) throws Exception
     {
-        String histDir = HistoryDir(StoragePath(fileName, null));
+        String histDir = HistoryDir(StoragePath(context, fileName, null));
 
         File dir = new File(histDir);
         dir.mkdir();
@@ -208,9 +219,9 @@ public class DocumentManager
         }
     }
 
-    public static File[] GetStoredFiles(String userAddress)
+    public static File[] GetStoredFiles(DocumentContext context, String userAddress)
     {
-        String directory = FilesRootPath(userAddress);
+        String directory = userAddress == null ? context.GetFilesRoot() : FilesRootPath(context, userAddress);
 
         File file = new File(directory);
         return file.listFiles(new FileFilter() {
@@ -221,15 +232,16 @@ public class DocumentManager
         });
     }
 
-    public static String CreateDemo(String fileExt, Boolean sample, String uid, String uname) throws Exception
+    public static String CreateDemo(DocumentContext context, String fileExt, Boolean sample, String uid, String uname) throws Exception
     {
         String demoName = (sample ? "sample." : "new.") + fileExt;
-        String fileName = GetCorrectName(demoName);
+        String fileName = GetCorrectName(context, demoName);
 
         InputStream stream = Thread.currentThread().getContextClassLoader().getResourceAsStream(demoName);
 
-        File file = new File(StoragePath(fileName, null));
+        File file = new File(StoragePath(context, fileName, null));
 
+        FlightEvents.FileCopyEvent copy = FlightEvents.FileCopyEvent.Begin(demoName, file.getPath());
         try (FileOutputStream out = new FileOutputStream(file))
         {
             int read;
@@ -237,22 +249,61 @@ public class DocumentManager
             while ((read = stream.read(bytes)) != -1)
             {
                 out.write(bytes, 0, read);
+                copy.bytes += read;
             }
             out.flush();
         }
+        copy.Finish();
 
-        CreateMeta(fileName, uid, uname);
+        CreateMeta(context, fileName, uid, uname);
+        EditorCache.Invalidate(context.GetHostAddress(), fileName);
+        StorageIndex.Update(context.GetFilesRoot(), fileName);
+        Thumbnails.Queue(context, fileName, Thumbnails.Saved);
+        SearchIndex.Queue(context, fileName);
 
         return fileName;
     }
 
-    public static String GetFileUri(String fileName)
+    public static void DownloadToFile(String url, File file) throws Exception
+    {
+        if (url == null || url.isEmpty()) throw new Exception("argument url");
+        if (file == null) throw new Exception("argument path");
+
+        URL uri = new URL(url);
+        java.net.HttpURLConnection connection = (java.net.HttpURLConnection) uri.openConnection();
+        InputStream stream = connection.getInputStream();
+
+        if (stream == null)
+        {
+            throw new Exception("Stream is null");
+        }
+
+        FlightEvents.FileCopyEvent copy = FlightEvents.FileCopyEvent.Begin(url, file.getPath());
+        try (FileOutputStream out = new FileOutputStream(file))
+        {
+            int read;
+            final byte[] bytes = new byte[1024];
+            while ((read = stream.read(bytes)) != -1)
+            {
+                out.write(bytes, 0, read);
+                Metrics.BytesDownloaded.Add(read);
+                copy.bytes += read;
+            }
+
+            out.flush();
+        }
+        copy.Finish();
+
+        connection.disconnect();
+    }
+
+    public static String GetFileUri(DocumentContext context, String fileName)
     {
         try
         {
-            String serverPath = GetServerUrl();
-            String storagePath = ConfigManager.GetProperty("storage-folder");
-            String hostAddress = CurUserHostAddress(null);
+            String serverPath = context.GetServerUrl();
+            String storagePath = ConfigManager.Get().storageFolder;
+            String hostAddress = context.GetHostAddress();
 
             String filePath = serverPath + "/" + storagePath + "/" + hostAddress + "/" + URLEncoder.encode(fileName, java.nio.charset.StandardCharsets.UTF_8.toString()).replace("+", "%20");
 
@@ -264,27 +315,21 @@ public class DocumentManager
         }
     }
 
-    public static String GetPathUri(String path)
+    public static String GetPathUri(DocumentContext context, String path)
     {
-        String serverPath = GetServerUrl();
-        String storagePath = ConfigManager.GetProperty("storage-folder");
-        String hostAddress = CurUserHostAddress(null);
+        String serverPath = context.GetServerUrl();
+        String storagePath = ConfigManager.Get().storageFolder;
+        String hostAddress = context.GetHostAddress();
 
-        String filePath = serverPath + "/" + storagePath + "/" + hostAddress + "/" + path.replace(File.separator, "/").substring(FilesRootPath(null).length()).replace(" ", "%20");
+        String filePath = serverPath + "/" + storagePath + "/" + hostAddress + "/" + path.replace(File.separator, "/").substring(context.GetFilesRoot().length()).replace(" ", "%20");
 
         return filePath;
     }
 
-
-    public static String GetServerUrl()
-    {
-        return request.getScheme() + "://" + request.getServerName() + ":" + request.getServerPort() + request.getContextPath();
-    }
-
-    public static String GetCallback(String fileName)
+    public static String GetCallback(DocumentContext context, String fileName)
     {
-        String serverPath = GetServerUrl();
-        String hostAddress = CurUserHostAddress(null);
+        String serverPath = context.GetServerUrl();
+        String hostAddress = context.GetHostAddress();
         try
         {
             String query = "?type=track&fileName=" + URLEncoder.encode(fileName, java.nio.charset.StandardCharsets.UTF_8.toString()) + "&userAddress=" + URLEncoder.encode(hostAddress, java.nio.charset.StandardCharsets.UTF_8.toString());
@@ -313,6 +358,10 @@ public class DocumentManager
 
     public static String CreateToken(Map<String, Object> payloadClaims)
     {
+        long start = System.nanoTime();
+        FlightEvents.TokenEvent event = new FlightEvents.TokenEvent();
+        event.operation = "sign";
+        event.begin();
         try
         {
             Signer signer = HMACSigner.newSHA256Signer(GetTokenSecret());
@@ -321,25 +370,43 @@ public class DocumentManager
             {
                 jwt.addClaim(key, payloadClaims.get(key));
             }
-            return JWT.getEncoder().encode(jwt, signer);
+            String token = JWT.getEncoder().encode(jwt, signer);
+            event.success = true;
+            return token;
         }
         catch (Exception e)
         {
             return "";
         }
+        finally
+        {
+            Metrics.JwtSignTime.RecordSince(start);
+            event.commit();
+        }
     }
 
     public static JWT ReadToken(String token)
     {
+        long start = System.nanoTime();
+        FlightEvents.TokenEvent event = new FlightEvents.TokenEvent();
+        event.operation = "verify";
+        event.begin();
         try
         {
             Verifier verifier = HMACVerifier.newVerifier(GetTokenSecret());
-            return JWT.getDecoder().decode(token, verifier);
+            JWT jwt = JWT.getDecoder().decode(token, verifier);
+            event.success = true;
+            return jwt;
         }
         catch (Exception exception)
         {
             return null;
         }
+        finally
+        {
+            Metrics.JwtVerifyTime.RecordSince(start);
+            event.commit();
+        }
     }
 
     public static Boolean TokenEnabled()
@@ -350,6 +417,6 @@ public class DocumentManager
 
     private static String GetTokenSecret()
     {
-        return ConfigManager.GetProperty("files.docservice.secret");
+        return ConfigManager.Get().secret;
     }
 }
\ No newline at end of file
@@ -0,0 +1,97 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package helpers;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//recent results of "download as", a repeated download or a resumed range is served without another conversion
+public class DownloadCache
+{
+    private static ConfigManager.Config CachedConfig = ConfigManager.Get();
+    private static long CachedBytes = 0;
+
+    private static final LinkedHashMap<String, Entry> Entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    public static class Entry
+    {
+        public final String contentType;
+        public final byte[] data;
+
+        public Entry(String contentType, byte[] data)
+        {
+            this.contentType = contentType;
+            this.data = data;
+        }
+    }
+
+    //the key changes with every save, so a stale result is never found and just ages out, it is a digest
+    //rather than the document key, the results of two users must not meet on a collision of the 32 bit key
+    public static String GetKey(DocumentContext context, String fileName, String format)
+    {
+        return DocumentManager.GetContentKey(context, fileName, format);
+    }
+
+    public static long GetMaxSize()
+    {
+        return ConfigManager.Get().GetLong("downloadas-cache-size", 16 * 1024 * 1024);
+    }
+
+    //a single result may take a quarter of the cache, larger ones are only streamed
+    public static long GetMaxEntrySize()
+    {
+        return GetMaxSize() / 4;
+    }
+
+    public static Entry Get(String key)
+    {
+        synchronized (Entries)
+        {
+            if (CachedConfig != ConfigManager.Get())
+            {
+                CachedConfig = ConfigManager.Get();
+                Entries.clear();
+                CachedBytes = 0;
+            }
+            return Entries.get(key);
+        }
+    }
+
+    public static void Put(String key, Entry entry)
+    {
+        long maxSize = GetMaxSize();
+        if (entry.data.length > GetMaxEntrySize()) return;
+
+        synchronized (Entries)
+        {
+            Entry previous = Entries.put(key, entry);
+            if (previous != null) CachedBytes -= previous.data.length;
+            CachedBytes += entry.data.length;
+
+            Iterator<Map.Entry<String, Entry>> eldest = Entries.entrySet().iterator();
+            while (CachedBytes > maxSize && eldest.hasNext())
+            {
+                CachedBytes -= eldest.next().getValue().data.length;
+                eldest.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package helpers;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//serialized editor configurations grouped by document, so that a save or removal drops every variant at once
+public class EditorCache
+{
+    private static ConfigManager.Config CachedConfig = ConfigManager.Get();
+
+    private static final Map<String, Map<String, Entry>> Documents = new LinkedHashMap<String, Map<String, Entry>>(16, 0.75f, true)
+    {
+        //inside a LinkedHashMap a bare Entry is its own nested class on java 8
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<String, EditorCache.Entry>> eldest)
+        {
+            return size() > CachedConfig.editorCacheSize;
+        }
+    };
+
+    //the key of the document the entry was rendered for, an entry of another version of the file is never served,
+    //even when the file was stored by something that did not invalidate it
+    public static class Entry
+    {
+        public final String key;
+        public final String config;
+        public final Boolean hasHistory;
+
+        public Entry(String key, String config, Boolean hasHistory)
+        {
+            this.key = key;
+            this.config = config;
+            this.hasHistory = hasHistory;
+        }
+    }
+
+    public static String GetVariant(DocumentContext context, String mode, String type, String lang, String uid, String uname)
+    {
+        return context.GetServerUrl() + "|" + mode + "|" + type + "|" + lang + "|" + uid + "|" + uname;
+    }
+
+    public static Map<String, Entry> GetDocument(String hostAddress, String fileName)
+    {
+        String document = hostAddress + "/" + fileName;
+        synchronized (Documents)
+        {
+            //urls and the token secret may change with the settings
+            if (CachedConfig != ConfigManager.Get())
+            {
+                CachedConfig = ConfigManager.Get();
+                Documents.clear();
+            }
+
+            Map<String, Entry> variants = Documents.get(document);
+            if (variants == null)
+            {
+                //the variants come from the cookies of the request, so a document keeps only the recent ones
+                final int maxVariants = CachedConfig.editorCacheVariants;
+                variants = Collections.synchronizedMap(new LinkedHashMap<String, Entry>(16, 0.75f, true)
+                {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, EditorCache.Entry> eldest)
+                    {
+                        return size() > maxVariants;
+                    }
+                });
+                if (CachedConfig.editorCacheSize > 0)
+                {
+                    Documents.put(document, variants);
+                }
+            }
+            return variants;
+        }
+    }
+
+    //an entry rendered before the document was invalidated is dropped, because its variants map is no longer cached
+    public static void Put(String hostAddress, String fileName, Map<String, Entry> variants, String variant, Entry entry)
+    {
+        synchronized (Documents)
+        {
+            if (Documents.get(hostAddress + "/" + fileName) == variants)
+            {
+                variants.put(variant, entry);
+            }
+        }
+    }
+
+    public static void Invalidate(String hostAddress, String fileName)
+    {
+        synchronized (Documents)
+        {
+            Documents.remove(hostAddress + "/" + fileName);
+        }
+    }
+}
@@ -18,31 +18,38 @@
 
 package helpers;
 
+import entities.FileFormat;
 import entities.FileType;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class FileUtility
 {
+    private static volatile Registry registry;
+
     static {}
 
     public static FileType GetFileType(String fileName)
     {
-        String ext = GetFileExtension(fileName).toLowerCase();
-
-        if (ExtsDocument.contains(ext))
-            return FileType.Text;
+        FileFormat format = GetFileFormat(fileName);
+        return format == null ? FileType.Text : format.type;
+    }
 
-        if (ExtsSpreadsheet.contains(ext))
-            return FileType.Spreadsheet;
+    //looks the extension up in place, without extracting or lowercasing it
+    public static FileFormat GetFileFormat(String fileName)
+    {
+        if (fileName == null) return null;
 
-        if (ExtsPresentation.contains(ext))
-            return FileType.Presentation;
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot < fileName.lastIndexOf('/')) return null;
 
-        return FileType.Text;
+        return GetRegistry().Find(fileName, dot, fileName.length());
     }
 
     public static List<String> ExtsDocument = Arrays.asList
@@ -75,11 +82,10 @@ public class FileUtility
         if (url == null) return null;
 
         //for external file url
-        String tempstorage = ConfigManager.GetProperty("files.docservice.url.tempstorage");
+        String tempstorage = ConfigManager.Get().tempStorageUrl;
         if (!tempstorage.isEmpty() && url.startsWith(tempstorage))
         {
-            Map<String, String> params = GetUrlParams(url);
-            return params == null ? null : params.get("filename");
+            return GetUrlParam(url, "filename");
         }
 
         String fileName = url.substring(url.lastIndexOf('/') + 1, url.length());
@@ -90,16 +96,49 @@ public class FileUtility
     {
         String fileName = GetFileName(url);
         if (fileName == null) return null;
-        String fileNameWithoutExt = fileName.substring(0, fileName.lastIndexOf('.'));
+        int dot = fileName.lastIndexOf('.');
+        String fileNameWithoutExt = dot < 0 ? fileName : fileName.substring(0, dot);
         return fileNameWithoutExt;
     }
 
     public static String GetFileExtension(String url)
     {
-        String fileName = GetFileName(url);
+        if (url == null) return null;
+
+        String tempstorage = ConfigManager.Get().tempStorageUrl;
+        String fileName = !tempstorage.isEmpty() && url.startsWith(tempstorage) ? GetFileName(url) : url;
         if (fileName == null) return null;
-        String fileExt = fileName.substring(fileName.lastIndexOf("."));
-        return fileExt.toLowerCase();
+
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot < fileName.lastIndexOf('/')) return "";
+
+        //registered extensions are returned without allocating a new string
+        FileFormat format = GetRegistry().Find(fileName, dot, fileName.length());
+        return format != null ? format.extension : fileName.substring(dot).toLowerCase();
+    }
+
+    public static String GetUrlParam(String url, String name)
+    {
+        int start = url.indexOf('?');
+        if (start < 0) return null;
+
+        int end = url.indexOf('#', start);
+        if (end < 0) end = url.length();
+
+        for (int pos = start + 1; pos < end; )
+        {
+            int next = url.indexOf('&', pos);
+            if (next < 0 || next > end) next = end;
+
+            if (next - pos > name.length() && url.charAt(pos + name.length()) == '=' && url.startsWith(name, pos))
+            {
+                return url.substring(pos + name.length() + 1, next);
+            }
+
+            pos = next + 1;
+        }
+
+        return null;
     }
 
     public static Map<String, String> GetUrlParams(String url)
@@ -122,4 +161,180 @@ public class FileUtility
             return null;
         }
     }
+
+    //detects the format from the first bytes of a file, returns the extensions the content may have with the preferred one first
+    public static String[] SniffExtensions(byte[] head, int length)
+    {
+        if (StartsWith(head, length, "%PDF-"))
+            return new String[] { ".pdf" };
+
+        if (StartsWith(head, length, "{\\rtf"))
+            return new String[] { ".rtf" };
+
+        if (StartsWith(head, length, "AT&TFORM"))
+            return new String[] { ".djvu" };
+
+        return SniffZip(head, length);
+    }
+
+    //walks the local file headers of the first zip entries, the open formats store their mime type
+    //in the first entry named mimetype, the office open formats are told by the folder of their parts
+    private static String[] SniffZip(byte[] head, int length)
+    {
+        int offset = 0;
+        while (offset + 30 <= length && ReadInt(head, offset) == 0x04034b50)
+        {
+            int flags = ReadShort(head, offset + 6);
+            int method = ReadShort(head, offset + 8);
+            long compressed = ReadInt(head, offset + 18) & 0xffffffffL;
+            int nameLength = ReadShort(head, offset + 26);
+            int extraLength = ReadShort(head, offset + 28);
+            if (offset + 30 + nameLength > length) return null;
+
+            String name = new String(head, offset + 30, nameLength, StandardCharsets.UTF_8);
+            long data = offset + 30L + nameLength + extraLength;
+
+            if (name.equals("mimetype"))
+            {
+                if (method != 0 || data + compressed > length) return null;
+
+                String mimeType = new String(head, (int) data, (int) compressed, StandardCharsets.US_ASCII).trim();
+                if (mimeType.startsWith("application/vnd.oasis.opendocument.text"))
+                    return new String[] { ".odt", ".ott" };
+
+                if (mimeType.startsWith("application/vnd.oasis.opendocument.spreadsheet"))
+                    return new String[] { ".ods", ".ots" };
+
+                if (mimeType.startsWith("application/vnd.oasis.opendocument.presentation"))
+                    return new String[] { ".odp", ".otp" };
+
+                if (mimeType.equals("application/epub+zip"))
+                    return new String[] { ".epub" };
+
+                return null;
+            }
+
+            if (name.startsWith("word/"))
+                return new String[] { ".docx", ".docm", ".dotx", ".dotm" };
+
+            if (name.startsWith("xl/"))
+                return new String[] { ".xlsx", ".xlsm", ".xltx", ".xltm" };
+
+            if (name.startsWith("ppt/"))
+                return new String[] { ".pptx", ".pptm", ".ppsx", ".ppsm", ".potx", ".potm" };
+
+            //the size of an entry written with a data descriptor is not in its header
+            if ((flags & 8) != 0 || data + compressed > length) return null;
+
+            offset = (int) (data + compressed);
+        }
+
+        return null;
+    }
+
+    private static int ReadShort(byte[] bytes, int offset)
+    {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+    }
+
+    private static int ReadInt(byte[] bytes, int offset)
+    {
+        return ReadShort(bytes, offset) | ReadShort(bytes, offset + 2) << 16;
+    }
+
+    private static boolean StartsWith(byte[] head, int length, String signature)
+    {
+        if (length < signature.length()) return false;
+
+        for (int i = 0; i < signature.length(); i++)
+        {
+            if (head[i] != (byte) signature.charAt(i)) return false;
+        }
+
+        return true;
+    }
+
+    private static Registry GetRegistry()
+    {
+        ConfigManager.Config config = ConfigManager.Get();
+        Registry current = registry;
+
+        if (current == null || current.config != config)
+        {
+            current = new Registry(config);
+            registry = current;
+        }
+
+        return current;
+    }
+
+    //open addressing table of the known extensions, rebuilt when the settings change
+    private static class Registry
+    {
+        private final ConfigManager.Config config;
+        private final String[] keys;
+        private final FileFormat[] formats;
+        private final int mask;
+
+        private Registry(ConfigManager.Config config)
+        {
+            this.config = config;
+
+            Set<String> exts = new LinkedHashSet<String>();
+            exts.addAll(ExtsDocument);
+            exts.addAll(ExtsSpreadsheet);
+            exts.addAll(ExtsPresentation);
+            exts.addAll(config.fileExts);
+
+            int capacity = Integer.highestOneBit(Math.max(exts.size(), 1) * 4);
+            keys = new String[capacity];
+            formats = new FileFormat[capacity];
+            mask = capacity - 1;
+
+            for (String ext : exts)
+            {
+                FileType type = ExtsSpreadsheet.contains(ext) ? FileType.Spreadsheet
+                        : ExtsPresentation.contains(ext) ? FileType.Presentation
+                        : FileType.Text;
+
+                FileFormat format = new FileFormat(ext, type,
+                        config.viewedExts.contains(ext),
+                        config.editedExts.contains(ext),
+                        config.convertExts.contains(ext),
+                        DocumentManager.GetInternalExtension(type));
+
+                int slot = Hash(ext, 0, ext.length()) & mask;
+                while (keys[slot] != null) slot = (slot + 1) & mask;
+
+                keys[slot] = ext;
+                formats[slot] = format;
+            }
+        }
+
+        private FileFormat Find(String name, int from, int to)
+        {
+            int length = to - from;
+            for (int slot = Hash(name, from, to) & mask; keys[slot] != null; slot = (slot + 1) & mask)
+            {
+                String key = keys[slot];
+                if (key.length() == length && name.regionMatches(true, from, key, 0, length))
+                {
+                    return formats[slot];
+                }
+            }
+
+            return null;
+        }
+
+        private static int Hash(String value, int from, int to)
+        {
+            int hash = 0;
+            for (int i = from; i < to; i++)
+            {
+                hash = 31 * hash + Character.toLowerCase(value.charAt(i));
+            }
+
+            return hash ^ (hash >>> 16);
+        }
+    }
 }
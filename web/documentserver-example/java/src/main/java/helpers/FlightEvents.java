@@ -0,0 +1,149 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package helpers;
+
+import java.nio.file.Path;
+
+//flight recorder events of the example. jdk.jfr is only there from java 11 on, so the events are plain objects and
+//the recorder is loaded by name, on an older runtime there is none and an event does nothing but keep its fields
+public class FlightEvents
+{
+    private static final Recorder Recorder = Load();
+
+    interface Recorder
+    {
+        //the begun event of the flight recorder, null when it is disabled
+        Object Begin(Event values);
+
+        void Commit(Object recorded, Event values);
+
+        void Record(String settings, long millis, Path file) throws Exception;
+    }
+
+    private static Recorder Load()
+    {
+        try
+        {
+            Class.forName("jdk.jfr.Event");
+            return (Recorder) Class.forName("helpers.JfrRecorder").getDeclaredConstructor().newInstance();
+        }
+        catch (Throwable ex)
+        {
+            return null;
+        }
+    }
+
+    public static boolean IsAvailable()
+    {
+        return Recorder != null;
+    }
+
+    //records the events of the example together with the jvm ones of the settings into the file
+    public static void Record(String settings, long millis, Path file) throws Exception
+    {
+        if (Recorder == null) throw new UnsupportedOperationException("The flight recorder is not available");
+        Recorder.Record(settings, millis, file);
+    }
+
+    public abstract static class Event
+    {
+        private Object recorded;
+
+        public void begin()
+        {
+            if (Recorder != null) recorded = Recorder.Begin(this);
+        }
+
+        public void commit()
+        {
+            if (recorded == null) return;
+            Recorder.Commit(recorded, this);
+            recorded = null;
+        }
+    }
+
+    public static class ConvertEvent extends Event
+    {
+        public String key;
+        public String from;
+        public String to;
+        public boolean async;
+        public int percent;
+        public String error;
+    }
+
+    public static class TrackStageEvent extends Event
+    {
+        public String fileName;
+        public String stage;
+
+        public static TrackStageEvent Begin(String fileName, String stage)
+        {
+            TrackStageEvent event = new TrackStageEvent();
+            event.fileName = fileName;
+            event.stage = stage;
+            event.begin();
+            return event;
+        }
+
+        public TrackStageEvent Next(String stage)
+        {
+            Finish();
+            return Begin(fileName, stage);
+        }
+
+        public void Finish()
+        {
+            commit();
+        }
+    }
+
+    public static class HistoryBuildEvent extends Event
+    {
+        public String histDir;
+        public String fileName;
+    }
+
+    public static class TokenEvent extends Event
+    {
+        public String operation;
+        public boolean success;
+    }
+
+    public static class FileCopyEvent extends Event
+    {
+        public String source;
+        public String target;
+        public long bytes;
+
+        public static FileCopyEvent Begin(String source, String target)
+        {
+            FileCopyEvent event = new FileCopyEvent();
+            event.source = source;
+            event.target = target;
+            event.begin();
+            return event;
+        }
+
+        public void Finish()
+        {
+            commit();
+        }
+    }
+}
@@ -0,0 +1,618 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package helpers;
+
+import com.google.gson.Gson;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+
+public class HistoryManager
+{
+    private static final String ChangesFile = "diff.zip";
+    private static final String ChangesUrlFile = "changesurl.txt";
+    private static final String FailedUrlFile = "changesurl.failed";
+    private static final String HistoryFile = "history.txt";
+    private static final String RestoreFolder = ".restore";
+
+    //the cached history keeps its urls without the server, so one copy serves every host the example is reached by
+    private static final String ServerUrl = "{server}";
+
+    private static final Object[] HistoryLocks = new Object[64];
+    private static final Object[] ChangesLocks = new Object[64];
+    private static final int MaxAttempts = 3;
+    private static final Map<String, Integer> Attempts = new ConcurrentHashMap<String, Integer>();
+
+    //changes archives are rarely requested, so they are fetched in the background with the lowest priority
+    private static final ExecutorService Prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "changes-prefetcher");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    static
+    {
+        for (int i = 0; i < HistoryLocks.length; i++)
+        {
+            HistoryLocks[i] = new Object();
+            ChangesLocks[i] = new Object();
+        }
+    }
+
+    public static boolean HasHistory(String histDir)
+    {
+        return new File(DocumentManager.VersionDir(histDir, 1)).exists();
+    }
+
+    //the history document of the editor with all the versions, empty when the document has none
+    public static String GetHistory(DocumentContext context, String histDir, String fileName, String curKey)
+    {
+        List<String> versions = GetVersions(context, histDir, fileName, curKey);
+        if (versions.isEmpty()) return "";
+
+        StringBuilder json = new StringBuilder("{\"currentVersion\":").append(versions.size() - 1).append(",\"history\":[");
+        boolean first = true;
+        for (String version : versions)
+        {
+            if (version.isEmpty()) continue;
+
+            if (!first) json.append(',');
+            json.append(version, 0, version.indexOf('\t'));
+            first = false;
+        }
+        json.append("]}");
+
+        return Absolute(context, json.toString());
+    }
+
+    //the history data of one version, null when there is no such version
+    public static String GetHistoryData(DocumentContext context, String histDir, String fileName, String curKey, int version)
+    {
+        List<String> versions = GetVersions(context, histDir, fileName, curKey);
+        if (version < 0 || version >= versions.size() || versions.get(version).isEmpty()) return null;
+
+        String line = versions.get(version);
+        return Absolute(context, line.substring(line.indexOf('\t') + 1));
+    }
+
+    //history.txt keeps the key and url of the current version on the first two lines and then a line
+    //for every version with its history entry and history data separated by a tab, so a version is served
+    //and a new one is added without parsing the others, the line of a version that could not be read is empty
+    private static List<String> GetVersions(DocumentContext context, String histDir, String fileName, String curKey)
+    {
+        DocumentContext cached = Cached(context);
+        String curUrl = DocumentManager.GetFileUri(cached, fileName);
+        File cache = new File(histDir + File.separator + HistoryFile);
+
+        if (!cache.exists() && !HasHistory(histDir))
+        {
+            return Collections.emptyList();
+        }
+
+        String[] lines = readFileToEnd(cache).split("\n", -1);
+        if (lines.length > 2 && lines[0].equals(curKey) && lines[1].equals(curUrl))
+        {
+            return Arrays.asList(lines).subList(2, lines.length);
+        }
+
+        synchronized (GetLock(HistoryLocks, histDir))
+        {
+            FlightEvents.HistoryBuildEvent event = new FlightEvents.HistoryBuildEvent();
+            event.histDir = histDir;
+            event.fileName = fileName;
+            event.begin();
+
+            long start = System.nanoTime();
+            List<String> versions = BuildHistory(cached, histDir, fileName, curKey, curUrl);
+            Metrics.HistoryBuildTime.RecordSince(start);
+            event.commit();
+            if (!versions.isEmpty())
+            {
+                WriteHistory(histDir, curKey, curUrl, versions);
+            }
+            return versions;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static void AppendVersion(DocumentContext context, String histDir, Integer version, String fileName, String prevKey, String changes, String curKey)
+    {
+        context = Cached(context);
+        String curUrl = DocumentManager.GetFileUri(context, fileName);
+
+        synchronized (GetLock(HistoryLocks, histDir))
+        {
+            File cache = new File(histDir + File.separator + HistoryFile);
+
+            try
+            {
+                String[] lines = readFileToEnd(cache).split("\n", -1);
+                if (lines.length < 3)
+                {
+                    throw new Exception("history is not materialized");
+                }
+
+                if (lines.length - 3 != version - 1)
+                {
+                    throw new Exception("history is out of date");
+                }
+
+                String last = lines[lines.length - 1];
+                if (last.isEmpty())
+                {
+                    throw new Exception("the previous version is not in the history");
+                }
+
+                JSONParser parser = new JSONParser();
+                int tab = last.indexOf('\t');
+                Map<String, Object> prevObj = (Map<String, Object>) parser.parse(last.substring(0, tab));
+                Map<String, Object> prevData = (Map<String, Object>) parser.parse(last.substring(tab + 1));
+
+                String ext = FileUtility.GetFileExtension(fileName);
+                String verDir = DocumentManager.VersionDir(histDir, version);
+
+                prevObj.put("key", prevKey);
+                prevData.put("key", prevKey);
+                prevData.put("url", DocumentManager.GetPathUri(context, verDir + File.separator + "prev" + ext));
+
+                Map<String, Object> obj = new HashMap<String, Object>();
+                obj.put("key", curKey);
+                obj.put("version", version);
+                PutChanges(obj, changes, parser);
+
+                Map<String, Object> prevInfo = new HashMap<String, Object>();
+                prevInfo.put("key", prevData.get("key"));
+                prevInfo.put("url", prevData.get("url"));
+
+                Map<String, Object> dataObj = new HashMap<String, Object>();
+                dataObj.put("key", curKey);
+                dataObj.put("url", curUrl);
+                dataObj.put("version", version);
+                dataObj.put("previous", prevInfo);
+                if (HasChanges(verDir)) dataObj.put("changesUrl", DocumentManager.GetPathUri(context, verDir + File.separator + ChangesFile));
+
+                Gson gson = new Gson();
+                List<String> versions = new ArrayList<String>(Arrays.asList(lines).subList(2, lines.length - 1));
+                versions.add(gson.toJson(prevObj) + "\t" + gson.toJson(prevData));
+                versions.add(gson.toJson(obj) + "\t" + gson.toJson(dataObj));
+
+                WriteHistory(histDir, curKey, curUrl, versions);
+            }
+            catch (Exception ex)
+            {
+                //the next editor open rebuilds the history from the version directories
+                cache.delete();
+            }
+        }
+    }
+
+    //a save takes the next version and moves the current file into it as its previous one under the lock of the
+    //history, so a restore can neither take the same number nor link a file that is being replaced. the folder is
+    //made with createDirectory, an existing one fails the save rather than being shared, returns the version
+    public static int BeginVersion(String histDir, File current, String prevName) throws IOException
+    {
+        synchronized (GetLock(HistoryLocks, histDir))
+        {
+            int version = DocumentManager.GetFileVersion(histDir) + 1;
+            Path versionDir = Paths.get(DocumentManager.VersionDir(histDir, version));
+            Files.createDirectories(versionDir.getParent());
+            Files.createDirectory(versionDir);
+
+            current.renameTo(versionDir.resolve(prevName).toFile());
+            return version;
+        }
+    }
+
+    //promotes an earlier version to the current one by recording a new version, as a save does: the current file
+    //becomes its previous one and the restored one the current file, both are hard links to the files there are,
+    //so the restore takes the same time for any size. the new version is put together in a folder next to the
+    //storage and renamed into the history, then the current file is replaced with a rename, returns the new version
+    public static int Restore(DocumentContext context, String fileName, int version, String uid, String uname) throws Exception
+    {
+        String storagePath = DocumentManager.StoragePath(context, fileName, null);
+        String histDir = DocumentManager.HistoryDir(storagePath);
+
+        synchronized (GetLock(HistoryLocks, histDir))
+        {
+            int current = DocumentManager.GetFileVersion(histDir);
+            if (version < 0 || version >= current) throw new Exception("Version " + version + " can not be restored");
+
+            String ext = FileUtility.GetFileExtension(fileName);
+            File source = new File(DocumentManager.VersionDir(histDir, version + 1) + File.separator + "prev" + ext);
+            File file = new File(storagePath);
+            if (!source.isFile() || !file.isFile()) throw new Exception("Version " + version + " is not found");
+
+            String prevKey = DocumentManager.GetDocumentKey(context, fileName, null);
+            long prevModified = file.lastModified();
+            int newVersion = current + 1;
+
+            Map<String, Object> user = new HashMap<String, Object>();
+            user.put("id", uid == null || uid.isEmpty() ? "uid-1" : uid);
+            user.put("name", uname == null || uname.isEmpty() ? "John Smith" : uname);
+            Map<String, Object> change = new HashMap<String, Object>();
+            change.put("created", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()));
+            change.put("user", user);
+            Map<String, Object> changesObj = new HashMap<String, Object>();
+            changesObj.put("changes", Collections.singletonList(change));
+            changesObj.put("serverVersion", null);
+            String changes = new Gson().toJson(changesObj);
+
+            Path temp = Paths.get(context.GetStorageRoot(), RestoreFolder, UUID.randomUUID().toString());
+            Path versionDir = temp.resolve(Integer.toString(newVersion));
+            Path target = Paths.get(DocumentManager.VersionDir(histDir, newVersion));
+            Files.createDirectories(versionDir);
+            try
+            {
+                Share(file.toPath(), versionDir.resolve("prev" + ext));
+                Files.write(versionDir.resolve("key.txt"), prevKey.getBytes(StandardCharsets.UTF_8));
+                Files.write(versionDir.resolve("changes.json"), changes.getBytes(StandardCharsets.UTF_8));
+
+                //the document key is made of the modification time, so it has to move past the current one
+                //and away from the key the restored version had, a link shares the time with its history file
+                Path restored = temp.resolve("current" + ext);
+                Share(source.toPath(), restored);
+                restored.toFile().setLastModified(Math.max(System.currentTimeMillis(), prevModified + 1000));
+
+                //the version directory appears complete or not at all. saves take their numbers under the same lock,
+                //so the target is free, a rename onto an empty directory would replace it silently if it was not
+                if (Files.exists(target)) throw new IOException("Version " + newVersion + " exists already");
+                Files.move(versionDir, target, StandardCopyOption.ATOMIC_MOVE);
+                try
+                {
+                    Files.move(restored, file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                }
+                catch (IOException ex)
+                {
+                    Files.move(target, versionDir, StandardCopyOption.ATOMIC_MOVE);
+                    throw ex;
+                }
+            }
+            finally
+            {
+                Delete(temp.toFile());
+            }
+
+            AppendVersion(context, histDir, newVersion, fileName, prevKey, changes, DocumentManager.GetDocumentKey(context, fileName, null));
+            return newVersion;
+        }
+    }
+
+    //a hard link where the file system has them, a copy otherwise, the files are never written in place,
+    //a save renames the current file away before it downloads the new one
+    public static void Share(Path source, Path target) throws IOException
+    {
+        try
+        {
+            Files.createLink(target, source);
+        }
+        catch (IOException | UnsupportedOperationException ex)
+        {
+            Files.copy(source, target);
+        }
+    }
+
+    private static void Delete(File file)
+    {
+        File[] children = file.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                Delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static List<String> BuildHistory(DocumentContext context, String histDir, String fileName, String curKey, String curUrl)
+    {
+        JSONParser parser = new JSONParser();
+        Integer curVer = DocumentManager.GetFileVersion(histDir);
+        if (curVer == 0) return Collections.emptyList();
+
+        String ext = FileUtility.GetFileExtension(fileName);
+
+        Gson gson = new Gson();
+        List<String> versions = new ArrayList<String>();
+        Map<String, Object> histData = new HashMap<String, Object>();
+
+        for (Integer i = 0; i <= curVer; i++) {
+            Map<String, Object> obj = new HashMap<String, Object>();
+            Map<String, Object> dataObj = new HashMap<String, Object>();
+            String verDir = DocumentManager.VersionDir(histDir, i + 1);
+
+            try {
+                String key = null;
+
+                key = i == curVer ? curKey : readFileToEnd(new File(verDir + File.separator + "key.txt"));
+
+                obj.put("key", key);
+                obj.put("version", i);
+
+                if (i == 0) {
+                    String createdInfo = readFileToEnd(new File(histDir + File.separator + "createdInfo.json"));
+                    JSONObject json = (JSONObject) parser.parse(createdInfo);
+
+                    obj.put("created", json.get("created"));
+                    Map<String, Object> user = new HashMap<String, Object>();
+                    user.put("id", json.get("id"));
+                    user.put("name", json.get("name"));
+                    obj.put("user", user);
+                }
+
+                dataObj.put("key", key);
+                dataObj.put("url", i == curVer ? curUrl : DocumentManager.GetPathUri(context, verDir + File.separator + "prev" + ext));
+                dataObj.put("version", i);
+
+                if (i > 0) {
+                    String prevVerDir = DocumentManager.VersionDir(histDir, i);
+                    PutChanges(obj, readFileToEnd(new File(prevVerDir + File.separator + "changes.json")), parser);
+
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> prev = (Map<String, Object>) histData.get(Integer.toString(i - 1));
+                    Map<String, Object> prevInfo = new HashMap<String, Object>();
+                    prevInfo.put("key", prev.get("key"));
+                    prevInfo.put("url", prev.get("url"));
+                    dataObj.put("previous", prevInfo);
+
+                    if (HasChanges(prevVerDir)) dataObj.put("changesUrl", DocumentManager.GetPathUri(context, prevVerDir + File.separator + ChangesFile));
+                }
+
+                versions.add(gson.toJson(obj) + "\t" + gson.toJson(dataObj));
+                histData.put(Integer.toString(i), dataObj);
+
+            } catch (Exception ex) {
+                versions.add("");
+            }
+        }
+
+        return versions;
+    }
+
+    private static void PutChanges(Map<String, Object> obj, String changesJson, JSONParser parser) throws Exception
+    {
+        if (changesJson == null || changesJson.isEmpty()) return;
+
+        JSONObject changes = (JSONObject) parser.parse(changesJson);
+        JSONObject change = (JSONObject) ((JSONArray) changes.get("changes")).get(0);
+
+        obj.put("changes", changes.get("changes"));
+        obj.put("serverVersion", changes.get("serverVersion"));
+        obj.put("created", change.get("created"));
+        obj.put("user", change.get("user"));
+    }
+
+    private static void WriteHistory(String histDir, String curKey, String curUrl, List<String> versions)
+    {
+        File cache = new File(histDir + File.separator + HistoryFile);
+        File temp = new File(histDir + File.separator + HistoryFile + ".tmp");
+
+        try
+        {
+            try (FileWriter fw = new FileWriter(temp))
+            {
+                fw.write(curKey + "\n" + curUrl);
+                for (String version : versions)
+                {
+                    fw.write("\n");
+                    fw.write(version);
+                }
+            }
+            Files.move(temp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (Exception ex)
+        {
+            temp.delete();
+        }
+    }
+
+    public static void SaveChangesUrl(String versionDir, String changesUri) throws Exception
+    {
+        if (changesUri == null || changesUri.isEmpty()) throw new Exception("argument url");
+
+        try (FileWriter fw = new FileWriter(new File(versionDir + File.separator + ChangesUrlFile)))
+        {
+            fw.write(changesUri);
+        }
+
+        Prefetch(versionDir);
+    }
+
+    //changesurl.txt without diff.zip marks an archive that is still to be fetched, the ones a restart
+    //left behind are queued again from the storage, the archive is also fetched when it is requested
+    public static void Init(final String storageRoot)
+    {
+        Prefetcher.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                File[] hosts = new File(storageRoot).listFiles();
+                if (hosts == null) return;
+
+                for (File host : hosts)
+                {
+                    if (!host.isDirectory() || host.getName().startsWith(".")) continue;
+
+                    File[] histDirs = host.listFiles();
+                    if (histDirs == null) continue;
+
+                    for (File histDir : histDirs)
+                    {
+                        File[] versionDirs = histDir.isDirectory() && histDir.getName().endsWith("-hist") ? histDir.listFiles() : null;
+                        if (versionDirs == null) continue;
+
+                        for (File versionDir : versionDirs)
+                        {
+                            if (new File(versionDir, ChangesUrlFile).exists() && !new File(versionDir, ChangesFile).exists())
+                            {
+                                Prefetch(versionDir.getPath());
+                            }
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    //an archive that is not queued after the shutdown keeps its marker and is fetched by the next start
+    private static void Prefetch(final String versionDir)
+    {
+        try
+        {
+            Prefetcher.submit(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    FetchChanges(versionDir);
+                }
+            });
+        }
+        catch (RejectedExecutionException ex)
+        {
+        }
+    }
+
+    public static void Shutdown()
+    {
+        Prefetcher.shutdownNow();
+    }
+
+    public static boolean FetchChanges(String versionDir)
+    {
+        File changes = new File(versionDir + File.separator + ChangesFile);
+        File changesUrl = new File(versionDir + File.separator + ChangesUrlFile);
+
+        if (changes.exists() || !changesUrl.exists())
+        {
+            return changes.exists();
+        }
+
+        synchronized (GetLock(ChangesLocks, versionDir))
+        {
+            if (changes.exists() || !changesUrl.exists()) return changes.exists();
+
+            File temp = new File(versionDir + File.separator + ChangesFile + ".tmp");
+            try
+            {
+                String url = new String(Files.readAllBytes(changesUrl.toPath()), StandardCharsets.UTF_8).trim();
+
+                DocumentManager.DownloadToFile(url, temp);
+
+                if (!temp.renameTo(changes))
+                {
+                    temp.delete();
+                    return false;
+                }
+
+                changesUrl.delete();
+                Attempts.remove(versionDir);
+                return true;
+            }
+            catch (Exception ex)
+            {
+                temp.delete();
+
+                //the urls of the document server expire, a link that is gone or keeps failing is given up,
+                //so the history stops offering the changes of that version
+                Integer attempts = Attempts.get(versionDir);
+                attempts = attempts == null ? 1 : attempts + 1;
+                if (ex instanceof FileNotFoundException || attempts >= MaxAttempts)
+                {
+                    Attempts.remove(versionDir);
+                    changesUrl.renameTo(new File(versionDir + File.separator + FailedUrlFile));
+
+                    String histDir = new File(versionDir).getParent();
+                    synchronized (GetLock(HistoryLocks, histDir))
+                    {
+                        new File(histDir + File.separator + HistoryFile).delete();
+                    }
+                }
+                else
+                {
+                    Attempts.put(versionDir, attempts);
+                }
+                return false;
+            }
+        }
+    }
+
+    //a restored version has no changes archive, the editor shows it without the changes then
+    private static boolean HasChanges(String versionDir)
+    {
+        return new File(versionDir + File.separator + ChangesFile).exists() || new File(versionDir + File.separator + ChangesUrlFile).exists();
+    }
+
+    private static DocumentContext Cached(DocumentContext context)
+    {
+        return new DocumentContext(ServerUrl, context.GetStorageRoot(), context.GetHostAddress());
+    }
+
+    private static String Absolute(DocumentContext context, String json)
+    {
+        return json.replace("\"" + ServerUrl, "\"" + context.GetServerUrl());
+    }
+
+    private static Object GetLock(Object[] locks, String path)
+    {
+        return locks[(path.hashCode() & 0x7fffffff) % locks.length];
+    }
+
+    private static String readFileToEnd(File file)
+    {
+        try
+        {
+            return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        }
+        catch (Exception e)
+        {
+            return "";
+        }
+    }
+}
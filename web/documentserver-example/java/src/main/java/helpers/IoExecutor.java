@@ -0,0 +1,138 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package helpers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+//runs the requests that block on the document server, in the platform mode they keep the container thread,
+//in the virtual mode the container thread is released through async dispatch and a virtual thread blocks instead
+public class IoExecutor
+{
+    public static final String Platform = "platform";
+    public static final String Virtual = "virtual";
+
+    private static final ThreadFactory Threads = new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "docservice-io");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private static volatile ExecutorService executor;
+    private static volatile String mode = Platform;
+
+    public static synchronized void Init(String requested)
+    {
+        Shutdown();
+
+        if (!Virtual.equalsIgnoreCase(requested == null ? "" : requested.trim()))
+        {
+            mode = Platform;
+            return;
+        }
+
+        //the build targets an old java, so the virtual threads of java 21 are looked up at run time
+        try
+        {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            mode = Virtual;
+        }
+        catch (Exception ex)
+        {
+            System.out.println("Virtual threads need Java 21 or later, the document server requests run on a cached thread pool");
+            executor = Executors.newCachedThreadPool(Threads);
+            mode = Platform;
+        }
+    }
+
+    public static synchronized void Shutdown()
+    {
+        if (executor != null)
+        {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    //the mode that is really used, a virtual request on an old java falls back to the platform threads
+    public static String GetMode()
+    {
+        return mode;
+    }
+
+    public static boolean IsAsync()
+    {
+        return executor != null;
+    }
+
+    //threads for the executors of the example, virtual ones in the virtual mode, the priority only applies to platform threads
+    public static ThreadFactory NewThreadFactory(final String name, final int priority)
+    {
+        if (Virtual.equals(mode))
+        {
+            try
+            {
+                Class<?> builder = Class.forName("java.lang.Thread$Builder");
+                Object virtual = Thread.class.getMethod("ofVirtual").invoke(null);
+                virtual = builder.getMethod("name", String.class, long.class).invoke(virtual, name + "-", 0L);
+                return (ThreadFactory) builder.getMethod("factory").invoke(virtual);
+            }
+            catch (Exception ex)
+            {
+            }
+        }
+
+        return new ThreadFactory()
+        {
+            private int count;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, name + "-" + count++);
+                thread.setDaemon(true);
+                thread.setPriority(priority);
+                return thread;
+            }
+        };
+    }
+
+    //false when the requests are not dispatched or the executor is shut down, the caller runs the task itself then
+    public static boolean Submit(Runnable task)
+    {
+        ExecutorService current = executor;
+        if (current == null) return false;
+
+        try
+        {
+            current.execute(task);
+            return true;
+        }
+        catch (RejectedExecutionException ex)
+        {
+            return false;
+        }
+    }
+}
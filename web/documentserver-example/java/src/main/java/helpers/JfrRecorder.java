@@ -0,0 +1,224 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package helpers;
+
+import java.nio.file.Path;
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+
+//the flight recorder side of FlightEvents, the only class of the example that links to jdk.jfr, it is loaded by name
+//and never on a runtime without the recorder. the events are disabled by default and turned on by the recording
+//settings or by RecordingServlet, a disabled event is dropped before it is begun
+class JfrRecorder implements FlightEvents.Recorder
+{
+    @SuppressWarnings("unchecked")
+    private static final Class<? extends Event>[] Types = new Class[] { Convert.class, TrackStage.class, HistoryBuild.class, Token.class, FileCopy.class };
+
+    @Name("onlyoffice.Convert")
+    @Label("Conversion")
+    @Description("Request to the document server conversion service")
+    @Category({ "ONLYOFFICE", "Document Server" })
+    @Enabled(false)
+    @StackTrace(false)
+    public static class Convert extends Event
+    {
+        @Label("Key")
+        public String key;
+
+        @Label("From")
+        public String from;
+
+        @Label("To")
+        public String to;
+
+        @Label("Async")
+        public boolean async;
+
+        @Label("Percent")
+        public int percent;
+
+        @Label("Error")
+        public String error;
+    }
+
+    @Name("onlyoffice.TrackStage")
+    @Label("Track Stage")
+    @Description("Stage of saving a document from the document server callback")
+    @Category({ "ONLYOFFICE", "Track" })
+    @Enabled(false)
+    @StackTrace(false)
+    public static class TrackStage extends Event
+    {
+        @Label("File Name")
+        public String fileName;
+
+        @Label("Stage")
+        public String stage;
+    }
+
+    @Name("onlyoffice.HistoryBuild")
+    @Label("History Build")
+    @Description("Rebuild of the version history of a document")
+    @Category({ "ONLYOFFICE", "History" })
+    @Enabled(false)
+    @StackTrace(false)
+    public static class HistoryBuild extends Event
+    {
+        @Label("History Directory")
+        public String histDir;
+
+        @Label("File Name")
+        public String fileName;
+    }
+
+    @Name("onlyoffice.Token")
+    @Label("Token")
+    @Description("Signing or verification of a document server token")
+    @Category({ "ONLYOFFICE", "Security" })
+    @Enabled(false)
+    @StackTrace(false)
+    public static class Token extends Event
+    {
+        @Label("Operation")
+        public String operation;
+
+        @Label("Success")
+        public boolean success;
+    }
+
+    @Name("onlyoffice.FileCopy")
+    @Label("File Copy")
+    @Description("Document written to the storage from an upload, a download or a sample")
+    @Category({ "ONLYOFFICE", "Storage" })
+    @Enabled(false)
+    @StackTrace(false)
+    public static class FileCopy extends Event
+    {
+        @Label("Source")
+        public String source;
+
+        @Label("Target")
+        public String target;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Override
+    public Object Begin(FlightEvents.Event values)
+    {
+        Event event;
+        if (values instanceof FlightEvents.ConvertEvent) event = new Convert();
+        else if (values instanceof FlightEvents.TrackStageEvent) event = new TrackStage();
+        else if (values instanceof FlightEvents.HistoryBuildEvent) event = new HistoryBuild();
+        else if (values instanceof FlightEvents.TokenEvent) event = new Token();
+        else event = new FileCopy();
+
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void Commit(Object recorded, FlightEvents.Event values)
+    {
+        Event event = (Event) recorded;
+        event.end();
+        if (!event.shouldCommit()) return;
+
+        if (event instanceof Convert)
+        {
+            Convert convert = (Convert) event;
+            FlightEvents.ConvertEvent from = (FlightEvents.ConvertEvent) values;
+            convert.key = from.key;
+            convert.from = from.from;
+            convert.to = from.to;
+            convert.async = from.async;
+            convert.percent = from.percent;
+            convert.error = from.error;
+        }
+        else if (event instanceof TrackStage)
+        {
+            TrackStage stage = (TrackStage) event;
+            FlightEvents.TrackStageEvent from = (FlightEvents.TrackStageEvent) values;
+            stage.fileName = from.fileName;
+            stage.stage = from.stage;
+        }
+        else if (event instanceof HistoryBuild)
+        {
+            HistoryBuild build = (HistoryBuild) event;
+            FlightEvents.HistoryBuildEvent from = (FlightEvents.HistoryBuildEvent) values;
+            build.histDir = from.histDir;
+            build.fileName = from.fileName;
+        }
+        else if (event instanceof Token)
+        {
+            Token token = (Token) event;
+            FlightEvents.TokenEvent from = (FlightEvents.TokenEvent) values;
+            token.operation = from.operation;
+            token.success = from.success;
+        }
+        else
+        {
+            FileCopy copy = (FileCopy) event;
+            FlightEvents.FileCopyEvent from = (FlightEvents.FileCopyEvent) values;
+            copy.source = from.source;
+            copy.target = from.target;
+            copy.bytes = from.bytes;
+        }
+        event.commit();
+    }
+
+    @Override
+    public void Record(String settings, long millis, Path file) throws Exception
+    {
+        Configuration configuration;
+        try
+        {
+            configuration = Configuration.getConfiguration(settings);
+        }
+        catch (Exception ex)
+        {
+            throw new IllegalArgumentException("Unknown settings " + settings);
+        }
+
+        try (Recording recording = new Recording(configuration))
+        {
+            recording.setName("documentserver-example");
+            for (Class<? extends Event> type : Types)
+            {
+                recording.enable(type);
+            }
+
+            recording.start();
+            Thread.sleep(millis);
+            recording.stop();
+            recording.dump(file);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package helpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+//counters and latency histograms of the example, recording only touches preallocated atomics
+public class Metrics
+{
+    private static final List<Metric> Registry = new ArrayList<Metric>();
+
+    public static final Histogram UploadTime = Register(new Histogram("example_action_duration_seconds", "Time spent handling a request", "action=\"upload\""));
+    public static final Histogram UploadChunkTime = Register(new Histogram("example_action_duration_seconds", "Time spent handling a request", "action=\"upload-chunk\""));
+    public static final Histogram ImportTime = Register(new Histogram("example_action_duration_seconds", "Time spent handling a request", "action=\"import\""));
+    public static final Histogram ExportTime = Register(new Histogram("example_action_duration_seconds", "Time spent handling a request", "action=\"export\""));
+    public static final Histogram DownloadAsTime = Register(new Histogram("example_action_duration_seconds", "Time spent handling a request", "action=\"download-as\""));
+    public static final Histogram ThumbnailTime = Register(new Histogram("example_action_duration_seconds", "Time spent handling a request", "action=\"thumbnail\""));
+    public static final Histogram SearchTime = Register(new Histogram("example_action_duration_seconds", "Time spent handling a request", "action=\"search\""));
+    public static final Histogram ConvertTime = Register(new Histogram("example_action_duration_seconds", "Time spent handling a request", "action=\"convert\""));
+    public static final Histogram TrackTime = Register(new Histogram("example_action_duration_seconds", "Time spent handling a request", "action=\"track\""));
+    public static final Histogram RemoveTime = Register(new Histogram("example_action_duration_seconds", "Time spent handling a request", "action=\"remove\""));
+    public static final Histogram RestoreTime = Register(new Histogram("example_action_duration_seconds", "Time spent handling a request", "action=\"restore\""));
+    public static final Histogram EditorTime = Register(new Histogram("example_action_duration_seconds", "Time spent handling a request", "action=\"editor\""));
+    public static final Histogram FilesTime = Register(new Histogram("example_action_duration_seconds", "Time spent handling a request", "action=\"files\""));
+    public static final Histogram HistoryTime = Register(new Histogram("example_action_duration_seconds", "Time spent handling a request", "action=\"history\""));
+
+    public static final Gauge ActiveRequests = Register(new Gauge("example_active_requests", "Requests being handled", ""));
+    public static final Gauge DispatchedRequests = Register(new Gauge("example_dispatched_requests", "Requests handled off the container threads", ""));
+
+    public static final Gauge UploadQueue = Register(new Gauge("example_bulkhead_queued", "Requests waiting for a thread of their bulkhead", "action=\"upload\""));
+    public static final Gauge ConvertQueue = Register(new Gauge("example_bulkhead_queued", "Requests waiting for a thread of their bulkhead", "action=\"convert\""));
+    public static final Gauge TrackQueue = Register(new Gauge("example_bulkhead_queued", "Requests waiting for a thread of their bulkhead", "action=\"track\""));
+    public static final Gauge RemoveQueue = Register(new Gauge("example_bulkhead_queued", "Requests waiting for a thread of their bulkhead", "action=\"remove\""));
+    public static final Counter UploadRejected = Register(new Counter("example_bulkhead_rejected_total", "Requests that found their bulkhead full", "action=\"upload\""));
+    public static final Counter ConvertRejected = Register(new Counter("example_bulkhead_rejected_total", "Requests that found their bulkhead full", "action=\"convert\""));
+    public static final Counter TrackRejected = Register(new Counter("example_bulkhead_rejected_total", "Requests that found their bulkhead full", "action=\"track\""));
+    public static final Counter RemoveRejected = Register(new Counter("example_bulkhead_rejected_total", "Requests that found their bulkhead full", "action=\"remove\""));
+
+    public static final Counter UploadAllowed = Register(new Counter("example_ratelimit_decisions_total", "Requests checked against the rate limits of their user", "limit=\"upload\",result=\"allowed\""));
+    public static final Counter UploadThrottled = Register(new Counter("example_ratelimit_decisions_total", "Requests checked against the rate limits of their user", "limit=\"upload\",result=\"throttled\""));
+    public static final Counter UploadBytesAllowed = Register(new Counter("example_ratelimit_decisions_total", "Requests checked against the rate limits of their user", "limit=\"upload-bytes\",result=\"allowed\""));
+    public static final Counter UploadBytesThrottled = Register(new Counter("example_ratelimit_decisions_total", "Requests checked against the rate limits of their user", "limit=\"upload-bytes\",result=\"throttled\""));
+    public static final Counter ConvertAllowed = Register(new Counter("example_ratelimit_decisions_total", "Requests checked against the rate limits of their user", "limit=\"convert\",result=\"allowed\""));
+    public static final Counter ConvertThrottled = Register(new Counter("example_ratelimit_decisions_total", "Requests checked against the rate limits of their user", "limit=\"convert\",result=\"throttled\""));
+    public static final Gauge RateLimitBuckets = Register(new Gauge("example_ratelimit_buckets", "Users with a bucket that is not full", ""));
+
+    public static final Histogram ConverterTime = Register(new Histogram("example_converter_duration_seconds", "Round trip of a conversion service request", ""));
+    public static final Counter ConverterErrors = Register(new Counter("example_converter_errors_total", "Conversion service requests that failed", ""));
+
+    public static final Counter DownloadCacheHits = Register(new Counter("example_download_cache_total", "Downloads as another format looked up in the cache of recent results", "result=\"hit\""));
+    public static final Counter DownloadCacheMisses = Register(new Counter("example_download_cache_total", "Downloads as another format looked up in the cache of recent results", "result=\"miss\""));
+
+    public static final Gauge ThumbnailQueue = Register(new Gauge("example_thumbnails_queued", "Thumbnails waiting to be made by the converter", ""));
+    public static final Counter ThumbnailsGenerated = Register(new Counter("example_thumbnails_total", "Thumbnails made by the converter", "result=\"generated\""));
+    public static final Counter ThumbnailsFailed = Register(new Counter("example_thumbnails_total", "Thumbnails made by the converter", "result=\"failed\""));
+
+    public static final Counter ImportConverted = Register(new Counter("example_import_conversions_total", "Imported documents converted in the background", "result=\"converted\""));
+    public static final Counter ImportConvertFailed = Register(new Counter("example_import_conversions_total", "Imported documents converted in the background", "result=\"failed\""));
+    public static final Counter ImportConvertRejected = Register(new Counter("example_import_conversions_total", "Imported documents converted in the background", "result=\"rejected\""));
+
+    public static final Gauge SearchQueue = Register(new Gauge("example_search_queued", "Documents waiting to be indexed for the search", ""));
+    public static final Counter SearchIndexed = Register(new Counter("example_search_documents_total", "Documents extracted and indexed for the search", "result=\"indexed\""));
+    public static final Counter SearchFailed = Register(new Counter("example_search_documents_total", "Documents extracted and indexed for the search", "result=\"failed\""));
+
+    public static final Counter BytesUploaded = Register(new Counter("example_bytes_total", "Bytes of the documents received and downloaded", "direction=\"upload\""));
+    public static final Counter BytesDownloaded = Register(new Counter("example_bytes_total", "Bytes of the documents received and downloaded", "direction=\"download\""));
+
+    public static final Histogram JwtSignTime = Register(new Histogram("example_jwt_duration_seconds", "Time spent on the document server tokens", "operation=\"sign\""));
+    public static final Histogram JwtVerifyTime = Register(new Histogram("example_jwt_duration_seconds", "Time spent on the document server tokens", "operation=\"verify\""));
+
+    public static final Histogram HistoryBuildTime = Register(new Histogram("example_history_build_duration_seconds", "Time spent rebuilding the version history of a document", ""));
+
+    private static <T extends Metric> T Register(T metric)
+    {
+        Registry.add(metric);
+        return metric;
+    }
+
+    public static abstract class Metric
+    {
+        protected final String name;
+        protected final String help;
+        protected final String labels;
+
+        protected Metric(String name, String help, String labels)
+        {
+            this.name = name;
+            this.help = help;
+            this.labels = labels;
+        }
+
+        protected abstract String GetType();
+
+        protected abstract void Write(StringBuilder out);
+
+        protected String Labels(String extra)
+        {
+            if (labels.isEmpty() && extra.isEmpty()) return "";
+            if (labels.isEmpty()) return "{" + extra + "}";
+            if (extra.isEmpty()) return "{" + labels + "}";
+            return "{" + labels + "," + extra + "}";
+        }
+    }
+
+    public static class Counter extends Metric
+    {
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String name, String help, String labels)
+        {
+            super(name, help, labels);
+        }
+
+        public void Increment()
+        {
+            value.increment();
+        }
+
+        public void Add(long amount)
+        {
+            value.add(amount);
+        }
+
+        @Override
+        protected String GetType()
+        {
+            return "counter";
+        }
+
+        @Override
+        protected void Write(StringBuilder out)
+        {
+            out.append(name).append(Labels("")).append(' ').append(value.sum()).append('\n');
+        }
+    }
+
+    public static class Gauge extends Metric
+    {
+        private final LongAdder value = new LongAdder();
+
+        private Gauge(String name, String help, String labels)
+        {
+            super(name, help, labels);
+        }
+
+        public void Increment()
+        {
+            value.increment();
+        }
+
+        public void Decrement()
+        {
+            value.decrement();
+        }
+
+        @Override
+        protected String GetType()
+        {
+            return "gauge";
+        }
+
+        @Override
+        protected void Write(StringBuilder out)
+        {
+            out.append(name).append(Labels("")).append(' ').append(value.sum()).append('\n');
+        }
+    }
+
+    //log-linear buckets as in HdrHistogram: every power of two from 1 us to 137 s is split in two halves,
+    //which keeps the relative error under 25% with a fixed number of slots
+    public static class Histogram extends Metric
+    {
+        private static final int MinExponent = 10;
+        private static final int MaxExponent = 36;
+        private static final int Buckets = (MaxExponent - MinExponent + 1) * 2 + 1;
+
+        private final AtomicLongArray counts = new AtomicLongArray(Buckets + 1);
+        private final LongAdder sum = new LongAdder();
+
+        private Histogram(String name, String help, String labels)
+        {
+            super(name, help, labels);
+        }
+
+        public void Record(long nanos)
+        {
+            counts.incrementAndGet(Index(nanos));
+            sum.add(nanos);
+        }
+
+        public void RecordSince(long startNanos)
+        {
+            Record(System.nanoTime() - startNanos);
+        }
+
+        private static int Index(long nanos)
+        {
+            if (nanos < 1L << MinExponent) return 0;
+
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            if (exponent > MaxExponent) return Buckets;
+
+            int half = (int) (nanos >>> (exponent - 1)) & 1;
+            return (exponent - MinExponent) * 2 + half + 1;
+        }
+
+        //exclusive upper bound of a bucket in nanoseconds
+        private static long UpperBound(int index)
+        {
+            if (index == 0) return 1L << MinExponent;
+
+            int exponent = MinExponent + (index - 1) / 2;
+            int half = (index - 1) % 2;
+            return (3L + half) << (exponent - 1);
+        }
+
+        @Override
+        protected String GetType()
+        {
+            return "histogram";
+        }
+
+        @Override
+        protected void Write(StringBuilder out)
+        {
+            long total = 0;
+            for (int i = 0; i < Buckets; i++)
+            {
+                total += counts.get(i);
+                out.append(name).append("_bucket").append(Labels("le=\"" + UpperBound(i) / 1e9 + "\"")).append(' ').append(total).append('\n');
+            }
+            total += counts.get(Buckets);
+
+            out.append(name).append("_bucket").append(Labels("le=\"+Inf\"")).append(' ').append(total).append('\n');
+            out.append(name).append("_sum").append(Labels("")).append(' ').append(sum.sum() / 1e9).append('\n');
+            out.append(name).append("_count").append(Labels("")).append(' ').append(total).append('\n');
+        }
+    }
+
+    //prometheus text exposition format, the metrics of one name are registered next to each other
+    public static void Write(StringBuilder out)
+    {
+        String last = null;
+        for (Metric metric : Registry)
+        {
+            if (!metric.name.equals(last))
+            {
+                out.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+                out.append("# TYPE ").append(metric.name).append(' ').append(metric.GetType()).append('\n');
+                last = metric.name;
+            }
+            metric.Write(out);
+        }
+    }
+}
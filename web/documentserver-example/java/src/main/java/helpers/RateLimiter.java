@@ -0,0 +1,155 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package helpers;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//token buckets per user, a bucket is a single atomic with the time at which it will be full again,
+//so taking tokens is one compare-and-set and a full bucket holds no information and can be dropped
+public class RateLimiter
+{
+    private static final long SweepInterval = 60;
+
+    //the full buckets are dropped by a thread of its own, so no request pays for a walk over all the users
+    private static final ScheduledExecutorService Sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, "ratelimit-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final long rate;
+    private final long burst;
+    private final Metrics.Counter allowed;
+    private final Metrics.Counter throttled;
+
+    private RateLimiter(long rate, long burst, Metrics.Counter allowed, Metrics.Counter throttled)
+    {
+        this.rate = rate;
+        this.burst = Math.max(burst, 1);
+        this.allowed = allowed;
+        this.throttled = throttled;
+    }
+
+    //ratelimit-<name>-rate tokens per second up to ratelimit-<name>-burst of the settings, null when there is no limit
+    public static RateLimiter Create(String name, Metrics.Counter allowed, Metrics.Counter throttled)
+    {
+        ConfigManager.Config config = ConfigManager.Get();
+        long rate = config.GetLong("ratelimit-" + name + "-rate", 0);
+        long burst = config.GetLong("ratelimit-" + name + "-burst", rate);
+
+        if (rate <= 0) return null;
+
+        final RateLimiter limiter = new RateLimiter(rate, burst, allowed, throttled);
+        try
+        {
+            Sweeper.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    limiter.Sweep(System.nanoTime());
+                }
+            }, SweepInterval, SweepInterval, TimeUnit.SECONDS);
+        }
+        catch (RejectedExecutionException ex)
+        {
+        }
+        return limiter;
+    }
+
+    //takes cost tokens of the bucket of the key, returns 0 when they were taken or the nanoseconds until they are there
+    public long TryAcquire(String key, long cost)
+    {
+        long now = System.nanoTime();
+
+        long tolerance = Nanos(burst);
+        //more than the whole burst at once is let through by a full bucket and charged in full, the bucket
+        //goes into debt and the user waits until the rest of the cost is paid off at the rate
+        long charge = Nanos(Math.max(cost, 0));
+        long increment = Math.min(charge, tolerance);
+
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null)
+        {
+            AtomicLong created = new AtomicLong(now);
+            bucket = buckets.putIfAbsent(key, created);
+            if (bucket == null)
+            {
+                bucket = created;
+                Metrics.RateLimitBuckets.Increment();
+            }
+        }
+
+        while (true)
+        {
+            long full = bucket.get();
+            long wait = Math.max(full, now) + increment - now - tolerance;
+
+            if (wait > 0)
+            {
+                throttled.Increment();
+                return wait;
+            }
+
+            if (bucket.compareAndSet(full, Math.max(full, now) + charge))
+            {
+                allowed.Increment();
+                return 0;
+            }
+        }
+    }
+
+    private long Nanos(long tokens)
+    {
+        return tokens >= Long.MAX_VALUE / TimeUnit.SECONDS.toNanos(1)
+                ? Long.MAX_VALUE / 2
+                : tokens * TimeUnit.SECONDS.toNanos(1) / rate;
+    }
+
+    public static void Shutdown()
+    {
+        Sweeper.shutdownNow();
+    }
+
+    //the buckets that have filled up again are dropped once a minute, a bucket dropped while it is being
+    //taken from only lets that one request through for free
+    private void Sweep(long now)
+    {
+        for (Map.Entry<String, AtomicLong> entry : buckets.entrySet())
+        {
+            if (entry.getValue().get() - now <= 0 && buckets.remove(entry.getKey(), entry.getValue()))
+            {
+                Metrics.RateLimitBuckets.Decrement();
+            }
+        }
+    }
+}
@@ -0,0 +1,783 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package helpers;
+
+import entities.FileType;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+//full-text search over the stored documents with a partition per user folder, the text of every new version is
+//extracted by the converter in the background and goes into an in-memory delta of the partition, which is merged
+//into its memory-mapped segment once it grows, the extracted texts are kept next to the index for the snippets
+//and to rebuild the delta after a restart
+public class SearchIndex
+{
+    private static final String SearchFolder = ".search";
+    private static final String SegmentFile = "segment.bin";
+    private static final String TextsFolder = "text";
+    private static final int MaxTermLength = 64;
+    private static final int SnippetLength = 160;
+    private static final int SnippetScan = 64 * 1024;
+
+    //the usual bm25 parameters, the term frequency saturates quickly and long documents are only slightly penalized
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    private static final ConcurrentHashMap<String, Partition> Partitions = new ConcurrentHashMap<String, Partition>();
+    private static final ConcurrentHashMap<String, Boolean> Pending = new ConcurrentHashMap<String, Boolean>();
+
+    //the extraction waits for the converter, so a few threads with the lowest priority keep it away from the requests
+    private static final ThreadPoolExecutor Executor;
+    static
+    {
+        int threads = (int) Math.max(1, ConfigManager.Get().GetLong("search-threads", 2));
+        Executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "search-indexer");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        Executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static class Result
+    {
+        public final String name;
+        public final float score;
+        public String snippet;
+
+        private Result(String name, float score)
+        {
+            this.name = name;
+            this.score = score;
+        }
+    }
+
+    public static class Results
+    {
+        public final List<Result> results = new ArrayList<Result>();
+        public int total;
+    }
+
+    public static boolean IsEnabled()
+    {
+        return ConfigManager.Get().GetLong("search-threads", 2) > 0;
+    }
+
+    //brings the index in line with the document as it is when the task runs, so an upload, a save and a removal
+    //are all queued the same way and a burst of changes of one document is indexed once
+    public static void Queue(final DocumentContext context, final String fileName)
+    {
+        if (!IsEnabled()) return;
+
+        final String task = context.GetStorageRoot() + "|" + context.GetHostAddress() + "|" + fileName;
+        if (Pending.putIfAbsent(task, Boolean.TRUE) != null) return;
+
+        Metrics.SearchQueue.Increment();
+        Executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Metrics.SearchQueue.Decrement();
+                Pending.remove(task);
+                Refresh(context, fileName);
+            }
+        });
+    }
+
+    public static Results Search(DocumentContext context, String query, int limit) throws IOException
+    {
+        Map<String, int[]> terms = new LinkedHashMap<String, int[]>();
+        Tokenize(query, terms);
+        return GetPartition(context).Search(new ArrayList<String>(terms.keySet()), limit);
+    }
+
+    public static void Shutdown()
+    {
+        Executor.shutdownNow();
+    }
+
+    private static void Refresh(DocumentContext context, String fileName)
+    {
+        try
+        {
+            Partition partition = GetPartition(context);
+            File file = new File(DocumentManager.StoragePath(context, fileName, null));
+            if (!file.isFile())
+            {
+                partition.Remove(fileName);
+                return;
+            }
+
+            String key = GetKey(context, fileName);
+            if (key.equals(partition.GetKey(fileName))) return;
+
+            String text = Extract(context, fileName, key);
+
+            //a version saved during the extraction has a task of its own
+            if (!key.equals(GetKey(context, fileName))) return;
+
+            partition.Add(fileName, key, text);
+            Metrics.SearchIndexed.Increment();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (Exception ex)
+        {
+            Metrics.SearchFailed.Increment();
+        }
+    }
+
+    private static Partition GetPartition(DocumentContext context) throws IOException
+    {
+        String folder = context.GetStorageRoot() + SearchFolder + File.separator + context.GetHostAddress();
+        Partition partition = Partitions.get(folder);
+        if (partition != null) return partition;
+
+        synchronized (Partitions)
+        {
+            partition = Partitions.get(folder);
+            if (partition == null)
+            {
+                partition = new Partition(Paths.get(folder));
+                partition.Load();
+                Partitions.put(folder, partition);
+                Backfill(context, partition);
+            }
+        }
+        return partition;
+    }
+
+    //documents stored before the index or changed while it was not running are queued once the partition is opened
+    private static void Backfill(DocumentContext context, Partition partition)
+    {
+        File[] files = new File(context.GetFilesRoot()).listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                String name = file.getName();
+                if (!file.isFile() || name.startsWith(".") || FileUtility.GetFileFormat(name) == null) continue;
+                if (!GetKey(context, name).equals(partition.GetKey(name))) Queue(context, name);
+            }
+        }
+
+        for (String name : partition.GetNames())
+        {
+            if (!new File(DocumentManager.StoragePath(context, name, null)).isFile()) Queue(context, name);
+        }
+    }
+
+    //names the indexed version of a document of the user and its text in the cache of the converter, the sha-256 of the
+    //folder, the name and the modification time of the document and of the output it is extracted to
+    private static String GetKey(DocumentContext context, String fileName)
+    {
+        return DocumentManager.GetContentKey(context, fileName, GetOutputExt(fileName));
+    }
+
+    private static String GetOutputExt(String fileName)
+    {
+        return FileUtility.GetFileType(fileName) == FileType.Spreadsheet ? ".csv" : ".txt";
+    }
+
+    //plain text documents are read as they are, the rest is converted, spreadsheets to csv as they have no text output
+    private static String Extract(DocumentContext context, String fileName, String key) throws Exception
+    {
+        ConfigManager.Config config = ConfigManager.Get();
+        int maxText = (int) config.GetLong("search-max-text", 1024 * 1024);
+
+        String fileExt = FileUtility.GetFileExtension(fileName);
+        if (".txt".equals(fileExt) || ".csv".equals(fileExt))
+        {
+            try (InputStream stream = new FileInputStream(DocumentManager.StoragePath(context, fileName, null)))
+            {
+                return ReadText(stream, maxText);
+            }
+        }
+
+        String fileUri = DocumentManager.GetFileUri(context, fileName);
+        //the converter takes 20 characters of a key, 80 bits of the digest instead of a hash of it
+        String revisionId = key.substring(0, 20);
+        long deadline = System.currentTimeMillis() + config.timeout;
+
+        String textUri;
+        while ((textUri = ServiceConverter.GetConvertedUri(fileUri, fileExt, GetOutputExt(fileName), revisionId, true)).isEmpty())
+        {
+            if (System.currentTimeMillis() > deadline) throw new Exception("Conversion timeout");
+            Thread.sleep(1000);
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(textUri).openConnection();
+        connection.setConnectTimeout(config.timeout);
+        try (InputStream stream = connection.getInputStream())
+        {
+            return ReadText(stream, maxText);
+        }
+        finally
+        {
+            connection.disconnect();
+        }
+    }
+
+    private static String ReadText(InputStream stream, int maxText) throws IOException
+    {
+        Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8);
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[8192];
+        int read;
+        while (text.length() < maxText && (read = reader.read(buffer, 0, Math.min(buffer.length, maxText - text.length()))) != -1)
+        {
+            text.append(buffer, 0, read);
+        }
+        if (text.length() > 0 && text.charAt(0) == '\uFEFF') text.deleteCharAt(0);
+        return text.toString();
+    }
+
+    //lowercased runs of letters and digits, returns the number of tokens and counts them by term
+    private static int Tokenize(CharSequence text, Map<String, int[]> counts)
+    {
+        int tokens = 0;
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++)
+        {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c))
+            {
+                token.append(Character.toLowerCase(c));
+                continue;
+            }
+            if (token.length() == 0) continue;
+
+            if (token.length() <= MaxTermLength)
+            {
+                String term = token.toString();
+                int[] count = counts.get(term);
+                if (count == null) counts.put(term, count = new int[1]);
+                count[0]++;
+                tokens++;
+            }
+            token.setLength(0);
+        }
+        return tokens;
+    }
+
+    //the text around the first term of the query found in the beginning of the document, or its beginning
+    private static String Snippet(Path textFile, List<String> terms)
+    {
+        String text;
+        try (BufferedReader reader = Files.newBufferedReader(textFile, StandardCharsets.UTF_8))
+        {
+            reader.readLine();
+            reader.readLine();
+            char[] buffer = new char[SnippetScan];
+            int length = 0;
+            int read;
+            while (length < buffer.length && (read = reader.read(buffer, length, buffer.length - length)) != -1)
+            {
+                length += read;
+            }
+            text = new String(buffer, 0, length);
+        }
+        catch (IOException ex)
+        {
+            return null;
+        }
+
+        int match = -1;
+        int begin = -1;
+        for (int i = 0; i <= text.length() && match < 0; i++)
+        {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letter && begin < 0) begin = i;
+            if (!letter && begin >= 0)
+            {
+                if (terms.contains(text.substring(begin, i).toLowerCase(Locale.ROOT))) match = begin;
+                begin = -1;
+            }
+        }
+
+        int start = match < 0 ? 0 : Math.max(0, match - SnippetLength / 3);
+        while (start > 0 && start < match && !Character.isWhitespace(text.charAt(start - 1))) start++;
+        int end = Math.min(text.length(), start + SnippetLength);
+
+        String snippet = text.substring(start, end).replaceAll("\\s+", " ").trim();
+        return (start > 0 ? "…" : "") + snippet + (end < text.length() ? "…" : "");
+    }
+
+    private static class IntList
+    {
+        private int[] values = new int[4];
+        private int size;
+
+        private void Add(int first, int second)
+        {
+            if (size + 2 > values.length) values = Arrays.copyOf(values, values.length * 2);
+            values[size++] = first;
+            values[size++] = second;
+        }
+    }
+
+    private static class Partition
+    {
+        private final Path folder;
+        private final Path texts;
+
+        //the searches share the read lock, the writer only takes the write lock to apply a change or swap a segment in,
+        //all changes go through the writer monitor, so a merge can read the delta without holding the lock
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Object writer = new Object();
+
+        private SearchSegment segment;
+        private final HashMap<String, IntList> delta = new HashMap<String, IntList>();
+        private final BitSet deleted = new BitSet();
+        private final HashMap<String, SearchSegment.Doc> docs = new HashMap<String, SearchSegment.Doc>();
+        private SearchSegment.Doc[] byId = new SearchSegment.Doc[1024];
+        private int nextId;
+        private long totalLength;
+        private int deltaDocs;
+
+        private Partition(Path folder)
+        {
+            this.folder = folder;
+            this.texts = folder.resolve(TextsFolder);
+        }
+
+        private Path TextFile(int id)
+        {
+            return texts.resolve(id + ".txt");
+        }
+
+        //the segment as of the last merge, then the texts that came after it
+        private void Load() throws IOException
+        {
+            Files.createDirectories(texts);
+            Files.deleteIfExists(folder.resolve(SegmentFile + ".tmp"));
+
+            Path segmentFile = folder.resolve(SegmentFile);
+            if (Files.exists(segmentFile))
+            {
+                try
+                {
+                    segment = SearchSegment.Open(segmentFile);
+                    for (SearchSegment.Doc doc : segment.GetDocs())
+                    {
+                        Put(doc);
+                    }
+                }
+                catch (IOException ex)
+                {
+                    //the texts of all the documents are kept, so a damaged segment is dropped and they make the partition again
+                    Files.delete(segmentFile);
+                }
+            }
+
+            List<Integer> ids = new ArrayList<Integer>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(texts, "*.txt"))
+            {
+                for (Path file : stream)
+                {
+                    String name = file.getFileName().toString();
+                    try
+                    {
+                        ids.add(Integer.parseInt(name.substring(0, name.length() - 4)));
+                    }
+                    catch (NumberFormatException ex)
+                    {
+                    }
+                }
+            }
+            Collections.sort(ids);
+
+            BitSet present = new BitSet();
+            for (int id : ids)
+            {
+                present.set(id);
+                if (id < byId.length && byId[id] != null) continue;
+
+                List<String> lines;
+                try
+                {
+                    lines = Files.readAllLines(TextFile(id), StandardCharsets.UTF_8);
+                }
+                catch (IOException ex)
+                {
+                    continue;
+                }
+                if (lines.size() < 2) continue;
+
+                StringBuilder text = new StringBuilder();
+                for (int i = 2; i < lines.size(); i++)
+                {
+                    text.append(lines.get(i)).append('\n');
+                }
+
+                Map<String, int[]> counts = new HashMap<String, int[]>();
+                int length = Tokenize(text, counts);
+                SearchSegment.Doc previous = Drop(lines.get(1));
+                if (previous != null) Files.deleteIfExists(TextFile(previous.id));
+                Insert(new SearchSegment.Doc(id, lines.get(1), lines.get(0), length), counts);
+            }
+
+            //a document of the segment without its text was removed after the merge
+            if (segment != null)
+            {
+                for (SearchSegment.Doc doc : segment.GetDocs())
+                {
+                    if (!present.get(doc.id) && docs.get(doc.name) == doc) Drop(doc.name);
+                }
+            }
+        }
+
+        private String GetKey(String name)
+        {
+            lock.readLock().lock();
+            try
+            {
+                SearchSegment.Doc doc = docs.get(name);
+                return doc == null ? null : doc.key;
+            }
+            finally
+            {
+                lock.readLock().unlock();
+            }
+        }
+
+        private List<String> GetNames()
+        {
+            lock.readLock().lock();
+            try
+            {
+                return new ArrayList<String>(docs.keySet());
+            }
+            finally
+            {
+                lock.readLock().unlock();
+            }
+        }
+
+        private void Add(String name, String key, String text) throws IOException
+        {
+            synchronized (writer)
+            {
+                Map<String, int[]> counts = new HashMap<String, int[]>();
+                int length = Tokenize(text, counts);
+                int id = nextId;
+
+                //names and keys have no line breaks, so they head the text and the file describes itself
+                Files.write(TextFile(id), (key + "\n" + name + "\n" + text).getBytes(StandardCharsets.UTF_8));
+
+                SearchSegment.Doc previous;
+                lock.writeLock().lock();
+                try
+                {
+                    previous = Drop(name);
+                    Insert(new SearchSegment.Doc(id, name, key, length), counts);
+                }
+                finally
+                {
+                    lock.writeLock().unlock();
+                }
+                if (previous != null) Files.deleteIfExists(TextFile(previous.id));
+
+                if (deltaDocs >= ConfigManager.Get().GetLong("search-merge-docs", 1000)) Merge();
+            }
+        }
+
+        private void Remove(String name) throws IOException
+        {
+            synchronized (writer)
+            {
+                SearchSegment.Doc previous;
+                lock.writeLock().lock();
+                try
+                {
+                    previous = Drop(name);
+                }
+                finally
+                {
+                    lock.writeLock().unlock();
+                }
+                if (previous != null) Files.deleteIfExists(TextFile(previous.id));
+            }
+        }
+
+        private void Put(SearchSegment.Doc doc)
+        {
+            if (doc.id >= byId.length) byId = Arrays.copyOf(byId, Math.max(byId.length * 2, doc.id + 1));
+            byId[doc.id] = doc;
+            docs.put(doc.name, doc);
+            totalLength += doc.length;
+            nextId = Math.max(nextId, doc.id + 1);
+        }
+
+        private void Insert(SearchSegment.Doc doc, Map<String, int[]> counts)
+        {
+            Put(doc);
+            for (Map.Entry<String, int[]> count : counts.entrySet())
+            {
+                IntList postings = delta.get(count.getKey());
+                if (postings == null) delta.put(count.getKey(), postings = new IntList());
+                postings.Add(doc.id, count.getValue()[0]);
+            }
+            deltaDocs++;
+        }
+
+        //the postings of a dropped document stay until the next merge and are skipped by the searches
+        private SearchSegment.Doc Drop(String name)
+        {
+            SearchSegment.Doc doc = docs.remove(name);
+            if (doc == null) return null;
+
+            byId[doc.id] = null;
+            deleted.set(doc.id);
+            totalLength -= doc.length;
+            return doc;
+        }
+
+        //writes the live postings of the segment and the delta into a new segment, the ids of the delta are all
+        //above those of the segment, so the lists stay sorted when they are appended
+        private void Merge() throws IOException
+        {
+            final SearchSegment current = segment;
+            final List<String> deltaTerms = new ArrayList<String>(delta.keySet());
+            Collections.sort(deltaTerms);
+
+            List<SearchSegment.Doc> live = new ArrayList<SearchSegment.Doc>(docs.values());
+            Collections.sort(live, new Comparator<SearchSegment.Doc>()
+            {
+                @Override
+                public int compare(SearchSegment.Doc a, SearchSegment.Doc b)
+                {
+                    return Integer.compare(a.id, b.id);
+                }
+            });
+
+            SearchSegment.TermSource source = new SearchSegment.TermSource()
+            {
+                private int segmentTerm;
+                private int deltaTerm;
+                private int[] postings = new int[64];
+                private int size;
+
+                @Override
+                public String NextTerm()
+                {
+                    String a = current != null && segmentTerm < current.GetTermCount() ? current.GetTerm(segmentTerm) : null;
+                    String b = deltaTerm < deltaTerms.size() ? deltaTerms.get(deltaTerm) : null;
+                    if (a == null && b == null) return null;
+
+                    int order = a == null ? 1 : b == null ? -1 : a.compareTo(b);
+                    size = 0;
+                    if (order <= 0)
+                    {
+                        int[] values = current.GetPostings(segmentTerm++);
+                        Append(values, values.length);
+                    }
+                    if (order >= 0)
+                    {
+                        IntList values = delta.get(deltaTerms.get(deltaTerm++));
+                        Append(values.values, values.size);
+                    }
+                    return order <= 0 ? a : b;
+                }
+
+                private void Append(int[] values, int length)
+                {
+                    for (int i = 0; i < length; i += 2)
+                    {
+                        if (deleted.get(values[i])) continue;
+                        if (size + 2 > postings.length) postings = Arrays.copyOf(postings, postings.length * 2);
+                        postings[size++] = values[i];
+                        postings[size++] = values[i + 1];
+                    }
+                }
+
+                @Override
+                public int[] GetPostings()
+                {
+                    return postings;
+                }
+
+                @Override
+                public int GetPostingsSize()
+                {
+                    return size;
+                }
+            };
+
+            Path temp = folder.resolve(SegmentFile + ".tmp");
+            try
+            {
+                SearchSegment.Write(temp, live, source);
+            }
+            catch (IOException ex)
+            {
+                //the delta stays in memory and is merged again with the next change
+                Files.deleteIfExists(temp);
+                throw ex;
+            }
+
+            Path segmentFile = folder.resolve(SegmentFile);
+            Files.move(temp, segmentFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            SearchSegment merged = SearchSegment.Open(segmentFile);
+
+            lock.writeLock().lock();
+            try
+            {
+                segment = merged;
+                delta.clear();
+                deleted.clear();
+                deltaDocs = 0;
+            }
+            finally
+            {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private Results Search(List<String> terms, int limit)
+        {
+            Results results = new Results();
+            List<SearchSegment.Doc> top = new ArrayList<SearchSegment.Doc>();
+            final float[] scores;
+
+            lock.readLock().lock();
+            try
+            {
+                int count = docs.size();
+                if (count == 0 || terms.isEmpty()) return results;
+
+                float averageLength = Math.max(1, totalLength / (float) count);
+                scores = new float[nextId];
+                IntList matched = new IntList();
+
+                for (String term : terms)
+                {
+                    int index = segment == null ? -1 : segment.Find(term);
+                    int[] segmentPostings = index < 0 ? new int[0] : segment.GetPostings(index);
+                    IntList deltaPostings = delta.get(term);
+                    if (deltaPostings == null) deltaPostings = new IntList();
+
+                    int frequency = Live(segmentPostings, segmentPostings.length) + Live(deltaPostings.values, deltaPostings.size);
+                    if (frequency == 0) continue;
+
+                    float idf = (float) Math.log(1 + (count - frequency + 0.5) / (frequency + 0.5));
+                    Score(segmentPostings, segmentPostings.length, idf, averageLength, scores, matched);
+                    Score(deltaPostings.values, deltaPostings.size, idf, averageLength, scores, matched);
+                }
+
+                results.total = matched.size / 2;
+                PriorityQueue<Integer> best = new PriorityQueue<Integer>(Math.max(1, limit), new Comparator<Integer>()
+                {
+                    @Override
+                    public int compare(Integer a, Integer b)
+                    {
+                        return Float.compare(scores[a], scores[b]);
+                    }
+                });
+                for (int i = 0; i < matched.size; i += 2)
+                {
+                    best.add(matched.values[i]);
+                    if (best.size() > limit) best.poll();
+                }
+                while (!best.isEmpty())
+                {
+                    top.add(byId[best.poll()]);
+                }
+            }
+            finally
+            {
+                lock.readLock().unlock();
+            }
+
+            //the texts are read without the lock, a document removed in between just has no snippet
+            Collections.reverse(top);
+            for (SearchSegment.Doc doc : top)
+            {
+                Result result = new Result(doc.name, scores[doc.id]);
+                result.snippet = Snippet(TextFile(doc.id), terms);
+                results.results.add(result);
+            }
+            return results;
+        }
+
+        private int Live(int[] postings, int length)
+        {
+            int live = 0;
+            for (int i = 0; i < length; i += 2)
+            {
+                if (!deleted.get(postings[i])) live++;
+            }
+            return live;
+        }
+
+        private void Score(int[] postings, int length, float idf, float averageLength, float[] scores, IntList matched)
+        {
+            for (int i = 0; i < length; i += 2)
+            {
+                int id = postings[i];
+                if (deleted.get(id)) continue;
+
+                float frequency = postings[i + 1];
+                float norm = K1 * (1 - B + B * byId[id].length / averageLength);
+                if (scores[id] == 0) matched.Add(id, 0);
+                scores[id] += idf * frequency * (K1 + 1) / (frequency + norm);
+            }
+        }
+    }
+}
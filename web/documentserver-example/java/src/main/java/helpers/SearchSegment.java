@@ -0,0 +1,325 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package helpers;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+//the immutable on-disk part of a search partition: the documents, the postings and, at the end, the sorted term
+//dictionary with the offset of every posting list, the dictionary is read into memory and the postings stay mapped,
+//a posting list is a run of varint pairs of the gap to the previous document id and the term frequency
+public class SearchSegment
+{
+    private static final int Magic = 0x53494458;
+    private static final int Version = 1;
+    //the postings are read at int positions of a single mapping
+    private static final long MaxSize = Integer.MAX_VALUE;
+
+    private final MappedByteBuffer buffer;
+    private final List<Doc> docs;
+    private final String[] terms;
+    private final int[] frequencies;
+    private final long[] offsets;
+
+    public static class Doc
+    {
+        public final int id;
+        public final String name;
+        public final String key;
+        public final int length;
+
+        public Doc(int id, String name, String key, int length)
+        {
+            this.id = id;
+            this.name = name;
+            this.key = key;
+            this.length = length;
+        }
+    }
+
+    //the terms of a merge in their sorted order, each with its postings as pairs of document id and frequency
+    public interface TermSource
+    {
+        String NextTerm();
+
+        int[] GetPostings();
+
+        int GetPostingsSize();
+    }
+
+    private SearchSegment(MappedByteBuffer buffer, List<Doc> docs, String[] terms, int[] frequencies, long[] offsets)
+    {
+        this.buffer = buffer;
+        this.docs = docs;
+        this.terms = terms;
+        this.frequencies = frequencies;
+        this.offsets = offsets;
+    }
+
+    public static SearchSegment Open(Path file) throws IOException
+    {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            if (channel.size() > MaxSize) throw new IOException("Search segment is too large " + file);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        try
+        {
+            return Read(file, buffer);
+        }
+        catch (RuntimeException ex)
+        {
+            //a segment cut short runs out of bytes or points outside of the mapping
+            throw new IOException("Damaged search segment " + file, ex);
+        }
+    }
+
+    private static SearchSegment Read(Path file, MappedByteBuffer buffer) throws IOException
+    {
+        ByteBuffer reader = buffer.duplicate();
+        if (reader.getInt() != Magic || reader.getInt() != Version) throw new IOException("Unknown search segment " + file);
+
+        //the counts and offsets are checked against the size before anything is allocated or read by them
+        int docCount = reader.getInt();
+        Check(docCount >= 0 && docCount <= reader.remaining() / 12, file);
+        List<Doc> docs = new ArrayList<Doc>(docCount);
+        for (int i = 0; i < docCount; i++)
+        {
+            int id = reader.getInt();
+            int length = reader.getInt();
+            String name = ReadString(reader);
+            String key = ReadString(reader);
+            docs.add(new Doc(id, name, key, length));
+        }
+
+        long dictionary = buffer.getLong(buffer.capacity() - 8);
+        Check(dictionary >= reader.position() && dictionary <= buffer.capacity() - 12, file);
+        reader.position((int) dictionary);
+        int termCount = reader.getInt();
+        Check(termCount >= 0 && termCount <= reader.remaining() / 14, file);
+        String[] terms = new String[termCount];
+        int[] frequencies = new int[termCount];
+        long[] offsets = new long[termCount];
+        for (int i = 0; i < termCount; i++)
+        {
+            terms[i] = ReadString(reader);
+            frequencies[i] = reader.getInt();
+            offsets[i] = reader.getLong();
+            Check(frequencies[i] >= 0 && frequencies[i] <= dictionary / 2 && offsets[i] >= 0 && offsets[i] < dictionary, file);
+        }
+
+        return new SearchSegment(buffer, Collections.unmodifiableList(docs), terms, frequencies, offsets);
+    }
+
+    private static void Check(boolean valid, Path file) throws IOException
+    {
+        if (!valid) throw new IOException("Damaged search segment " + file);
+    }
+
+    public List<Doc> GetDocs()
+    {
+        return docs;
+    }
+
+    public int GetTermCount()
+    {
+        return terms.length;
+    }
+
+    public String GetTerm(int index)
+    {
+        return terms[index];
+    }
+
+    public int Find(String term)
+    {
+        int index = Arrays.binarySearch(terms, term);
+        return index < 0 ? -1 : index;
+    }
+
+    //decodes the posting list of a term from the mapping, a duplicate keeps the concurrent readers apart
+    public int[] GetPostings(int index)
+    {
+        int[] postings = new int[frequencies[index] * 2];
+        ByteBuffer reader = buffer.duplicate();
+        reader.position((int) offsets[index]);
+
+        int id = 0;
+        for (int i = 0; i < postings.length; i += 2)
+        {
+            id += ReadVarInt(reader);
+            postings[i] = id;
+            postings[i + 1] = ReadVarInt(reader);
+        }
+        return postings;
+    }
+
+    public static void Write(Path file, List<Doc> docs, TermSource source) throws IOException
+    {
+        List<String> terms = new ArrayList<String>();
+        List<Integer> frequencies = new ArrayList<Integer>();
+        List<Long> offsets = new ArrayList<Long>();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             CountingStream counter = new CountingStream(Channels.newOutputStream(channel));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(counter, 64 * 1024)))
+        {
+            out.writeInt(Magic);
+            out.writeInt(Version);
+            out.writeInt(docs.size());
+            for (Doc doc : docs)
+            {
+                out.writeInt(doc.id);
+                out.writeInt(doc.length);
+                WriteString(out, doc.name);
+                WriteString(out, doc.key);
+            }
+
+            String term;
+            while ((term = source.NextTerm()) != null)
+            {
+                int[] postings = source.GetPostings();
+                int size = source.GetPostingsSize();
+                if (size == 0) continue;
+
+                out.flush();
+                CheckSize(counter.count);
+                terms.add(term);
+                frequencies.add(size / 2);
+                offsets.add(counter.count);
+
+                int previous = 0;
+                for (int i = 0; i < size; i += 2)
+                {
+                    WriteVarInt(out, postings[i] - previous);
+                    WriteVarInt(out, postings[i + 1]);
+                    previous = postings[i];
+                }
+            }
+
+            out.flush();
+            long dictionary = counter.count;
+            out.writeInt(terms.size());
+            for (int i = 0; i < terms.size(); i++)
+            {
+                WriteString(out, terms.get(i));
+                out.writeInt(frequencies.get(i));
+                out.writeLong(offsets.get(i));
+            }
+            out.writeLong(dictionary);
+            out.flush();
+            CheckSize(counter.count);
+
+            //the segment is on the disk before it is renamed over the previous one, so a crash leaves either of them whole
+            channel.force(true);
+        }
+    }
+
+    private static void CheckSize(long size) throws IOException
+    {
+        if (size > MaxSize) throw new IOException("Search segment is larger than 2 GB");
+    }
+
+    private static String ReadString(ByteBuffer reader)
+    {
+        byte[] bytes = new byte[reader.getShort() & 0xFFFF];
+        reader.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void WriteString(DataOutputStream out, String value) throws IOException
+    {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, 0xFFFF);
+        out.writeShort(length);
+        out.write(bytes, 0, length);
+    }
+
+    private static int ReadVarInt(ByteBuffer reader)
+    {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do
+        {
+            b = reader.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        }
+        while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static void WriteVarInt(DataOutputStream out, int value) throws IOException
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static class CountingStream extends OutputStream
+    {
+        private final OutputStream out;
+        private long count;
+
+        private CountingStream(OutputStream out)
+        {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            out.close();
+        }
+    }
+}
@@ -39,10 +39,6 @@ import org.json.simple.parser.ParseException;
 
 public class ServiceConverter
 {
-    private static int ConvertTimeout = 120000;
-    private static final String DocumentConverterUrl = ConfigManager.GetProperty("files.docservice.url.converter");
-    private static final String DocumentJwtHeader = ConfigManager.GetProperty("files.docservice.header");
-
     public static class ConvertBody
     {
         public String url;
@@ -51,25 +47,31 @@ public class ServiceConverter
         public String title;
         public String key;
         public Boolean async;
+        public Thumbnail thumbnail;
         public String token;
     }
 
-    static
+    //asks an image converter for the first page only, scaled into the box with its aspect ratio kept
+    public static class Thumbnail
     {
-        try
-        {
-            int timeout = Integer.parseInt(ConfigManager.GetProperty("files.docservice.timeout"));
-            if (timeout > 0) 
-            {
-                ConvertTimeout = timeout;
-            }
-        }
-        catch (Exception ex)
+        public Integer aspect = 1;
+        public Boolean first = true;
+        public Integer width;
+        public Integer height;
+
+        public Thumbnail(int width, int height)
         {
+            this.width = width;
+            this.height = height;
         }
     }
 
     public static String GetConvertedUri(String documentUri, String fromExtension, String toExtension, String documentRevisionId, Boolean isAsync) throws Exception
+    {
+        return GetConvertedUri(documentUri, fromExtension, toExtension, documentRevisionId, isAsync, null);
+    }
+
+    public static String GetConvertedUri(String documentUri, String fromExtension, String toExtension, String documentRevisionId, Boolean isAsync, Thumbnail thumbnail) throws Exception
     {
         fromExtension = fromExtension == null || fromExtension.isEmpty() ? FileUtility.GetFileExtension(documentUri) : fromExtension;
 
@@ -80,6 +82,8 @@ public class ServiceConverter
 
         documentRevisionId = GenerateRevisionId(documentRevisionId);
 
+        ConfigManager.Config config = ConfigManager.Get();
+
         ConvertBody body = new ConvertBody();
         body.url = documentUri;
         body.outputtype = toExtension.replace(".", "");
@@ -88,6 +92,7 @@ public class ServiceConverter
         body.key = documentRevisionId;
         if (isAsync)
             body.async = true;
+        body.thumbnail = thumbnail;
 
         String headerToken = "";
         if (DocumentManager.TokenEnabled())
@@ -100,6 +105,15 @@ public class ServiceConverter
             map.put("key", body.key);
             if (isAsync)
                 map.put("async", body.async);
+            if (thumbnail != null)
+            {
+                HashMap<String, Object> thumbnailMap = new HashMap<String, Object>();
+                thumbnailMap.put("aspect", thumbnail.aspect);
+                thumbnailMap.put("first", thumbnail.first);
+                thumbnailMap.put("width", thumbnail.width);
+                thumbnailMap.put("height", thumbnail.height);
+                map.put("thumbnail", thumbnailMap);
+            }
 
             String token = DocumentManager.CreateToken(map);
             body.token = token;
@@ -114,35 +128,70 @@ public class ServiceConverter
 
         byte[] bodyByte = bodyString.getBytes(StandardCharsets.UTF_8);
 
-        URL url = new URL(DocumentConverterUrl);
+        URL url = new URL(config.converterUrl);
         java.net.HttpURLConnection connection = (java.net.HttpURLConnection) url.openConnection();
         connection.setRequestMethod("POST");
         connection.setDoOutput(true);
         connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
         connection.setFixedLengthStreamingMode(bodyByte.length);
         connection.setRequestProperty("Accept", "application/json");
-        connection.setConnectTimeout(ConvertTimeout);
+        connection.setConnectTimeout(config.timeout);
 
         if (DocumentManager.TokenEnabled())
         {
-            connection.setRequestProperty(DocumentJwtHeader == "" ? "Authorization" : DocumentJwtHeader, "Bearer " + headerToken);
+            connection.setRequestProperty(config.header, "Bearer " + headerToken);
         }
 
-        connection.connect();
-        try (OutputStream os = connection.getOutputStream()) {
-            os.write(bodyByte);
-        }
+        FlightEvents.ConvertEvent event = new FlightEvents.ConvertEvent();
+        event.key = body.key;
+        event.from = body.filetype;
+        event.to = body.outputtype;
+        event.async = isAsync;
+        event.begin();
+
+        long start = System.nanoTime();
+        String jsonString;
+        try
+        {
+            connection.connect();
+            try (OutputStream os = connection.getOutputStream()) {
+                os.write(bodyByte);
+            }
 
-        InputStream stream = connection.getInputStream();
+            InputStream stream = connection.getInputStream();
 
-        if (stream == null)
-            throw new Exception("Could not get an answer");
+            if (stream == null)
+                throw new Exception("Could not get an answer");
 
-        String jsonString = ConvertStreamToString(stream);
+            jsonString = ConvertStreamToString(stream);
 
-        connection.disconnect();
+            connection.disconnect();
+        }
+        catch (Exception ex)
+        {
+            Metrics.ConverterErrors.Increment();
+            event.error = ex.getMessage();
+            event.commit();
+            throw ex;
+        }
+        finally
+        {
+            Metrics.ConverterTime.RecordSince(start);
+        }
 
-        return GetResponseUri(jsonString);
+        try
+        {
+            return GetResponseUri(jsonString, event);
+        }
+        catch (Exception ex)
+        {
+            event.error = ex.getMessage();
+            throw ex;
+        }
+        finally
+        {
+            event.commit();
+        }
     }
 
     public static String GenerateRevisionId(String expectedKey)
@@ -196,7 +245,7 @@ public class ServiceConverter
         throw new Exception(errorMessage);
     }
 
-    private static String GetResponseUri(String jsonString) throws Exception
+    private static String GetResponseUri(String jsonString, FlightEvents.ConvertEvent event) throws Exception
     {
         JSONObject jsonObj = ConvertStringToJSON(jsonString);
 
@@ -220,6 +269,8 @@ public class ServiceConverter
             resultPercent = resultPercent >= 100l ? 99l : resultPercent;
         }
 
+        event.percent = resultPercent.intValue();
+
         return resultPercent >= 100l ? responseUri : "";
     }
 
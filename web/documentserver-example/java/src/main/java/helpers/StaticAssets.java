@@ -0,0 +1,94 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package helpers;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import javax.servlet.ServletContext;
+
+//fingerprinted names of the static files written by AssetBuilder, an asset missing from the manifest is served as is
+public class StaticAssets
+{
+    public static final String ManifestPath = "WEB-INF/assets.properties";
+
+    private static volatile Map<String, String> urls = Collections.emptyMap();
+    private static volatile Map<String, Asset> assets = Collections.emptyMap();
+
+    public static class Asset
+    {
+        public final String source;
+        public final String path;
+        public final List<String> encodings;
+
+        private Asset(String source, String path, List<String> encodings)
+        {
+            this.source = source;
+            this.path = path;
+            this.encodings = encodings;
+        }
+    }
+
+    public static void Init(ServletContext context)
+    {
+        Properties manifest = new Properties();
+
+        try (InputStream stream = context.getResourceAsStream("/" + ManifestPath))
+        {
+            if (stream == null) return;
+            manifest.load(stream);
+        }
+        catch (Exception ex)
+        {
+            return;
+        }
+
+        Map<String, String> newUrls = new HashMap<String, String>();
+        Map<String, Asset> newAssets = new HashMap<String, Asset>();
+
+        //source=fingerprinted|encoding|encoding, the encodings are listed in the order of preference
+        for (String source : manifest.stringPropertyNames())
+        {
+            String[] values = manifest.getProperty(source).split("\\|");
+            List<String> encodings = Collections.unmodifiableList(new ArrayList<String>(Arrays.asList(values).subList(1, values.length)));
+
+            newUrls.put(source, values[0]);
+            newAssets.put(values[0], new Asset(source, values[0], encodings));
+        }
+
+        urls = newUrls;
+        assets = newAssets;
+    }
+
+    public static String Url(String path)
+    {
+        String url = urls.get(path);
+        return url == null ? path : url;
+    }
+
+    public static Asset Get(String path)
+    {
+        return assets.get(path);
+    }
+}
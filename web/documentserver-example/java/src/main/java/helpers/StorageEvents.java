@@ -0,0 +1,74 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package helpers;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+//in-process bus for the changes of the user directories, keyed by the directory path
+public class StorageEvents
+{
+    private static final ConcurrentHashMap<String, Set<Listener>> Listeners = new ConcurrentHashMap<String, Set<Listener>>();
+
+    //events are published under the storage index lock, so listeners must only queue them
+    public interface Listener
+    {
+        void OnEvent(String event, String data);
+    }
+
+    public static void Subscribe(String filesRoot, Listener listener)
+    {
+        Set<Listener> listeners = Listeners.get(filesRoot);
+        if (listeners == null)
+        {
+            Set<Listener> created = new CopyOnWriteArraySet<Listener>();
+            listeners = Listeners.putIfAbsent(filesRoot, created);
+            if (listeners == null) listeners = created;
+        }
+
+        listeners.add(listener);
+    }
+
+    public static void Unsubscribe(String filesRoot, Listener listener)
+    {
+        Set<Listener> listeners = Listeners.get(filesRoot);
+        if (listeners != null)
+        {
+            listeners.remove(listener);
+        }
+    }
+
+    public static boolean HasListeners(String filesRoot)
+    {
+        Set<Listener> listeners = Listeners.get(filesRoot);
+        return listeners != null && !listeners.isEmpty();
+    }
+
+    public static void Publish(String filesRoot, String event, String data)
+    {
+        Set<Listener> listeners = Listeners.get(filesRoot);
+        if (listeners == null) return;
+
+        for (Listener listener : listeners)
+        {
+            listener.OnEvent(event, data);
+        }
+    }
+}
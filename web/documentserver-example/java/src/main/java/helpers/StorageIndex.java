@@ -0,0 +1,383 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package helpers;
+
+import com.google.gson.Gson;
+import entities.FileType;
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+//in-memory listing of the user directories, kept sorted and versioned so that pages and changes are served without a directory scan
+public class StorageIndex
+{
+    private static final int MaxRemoved = 1000;
+
+    private static final ConcurrentHashMap<String, Directory> Directories = new ConcurrentHashMap<String, Directory>();
+
+    public static final Comparator<Entry> ByName = new Comparator<Entry>()
+    {
+        @Override
+        public int compare(Entry a, Entry b)
+        {
+            int result = String.CASE_INSENSITIVE_ORDER.compare(a.name, b.name);
+            return result != 0 ? result : a.name.compareTo(b.name);
+        }
+    };
+
+    public static final Comparator<Entry> ByDate = new Comparator<Entry>()
+    {
+        @Override
+        public int compare(Entry a, Entry b)
+        {
+            int result = Long.compare(a.modified, b.modified);
+            return result != 0 ? result : ByName.compare(a, b);
+        }
+    };
+
+    public static final Comparator<Entry> BySize = new Comparator<Entry>()
+    {
+        @Override
+        public int compare(Entry a, Entry b)
+        {
+            int result = Long.compare(a.size, b.size);
+            return result != 0 ? result : ByName.compare(a, b);
+        }
+    };
+
+    public static class Entry
+    {
+        public final String name;
+        public final long size;
+        public final long modified;
+        public final FileType type;
+        private final long seq;
+
+        private Entry(String name, long size, long modified, long seq)
+        {
+            this.name = name;
+            this.size = size;
+            this.modified = modified;
+            this.type = FileUtility.GetFileType(name);
+            this.seq = seq;
+        }
+
+        public Map<String, Object> ToMap()
+        {
+            Map<String, Object> file = new HashMap<String, Object>();
+            file.put("name", name);
+            file.put("size", size);
+            file.put("modified", modified);
+            file.put("type", type.toString().toLowerCase());
+            return file;
+        }
+    }
+
+    public static class Page
+    {
+        public final List<Entry> files = new ArrayList<Entry>();
+        public final List<String> removed = new ArrayList<String>();
+        public String token;
+        public String next;
+        public boolean reset;
+    }
+
+    public static Directory Get(String filesRoot)
+    {
+        Directory directory = Directories.get(filesRoot);
+        if (directory == null)
+        {
+            Directory created = new Directory(filesRoot);
+            directory = Directories.putIfAbsent(filesRoot, created);
+            if (directory == null) directory = created;
+        }
+
+        directory.Refresh();
+        return directory;
+    }
+
+    public static void Update(String filesRoot, String fileName)
+    {
+        Directory directory = Directories.get(filesRoot);
+        if (directory != null)
+        {
+            directory.Update(fileName);
+        }
+    }
+
+    public static class Directory
+    {
+        private final String filesRoot;
+        private final File root;
+        private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+        private final Map<String, Entry> entries = new HashMap<String, Entry>();
+        private final TreeSet<Entry> byName = new TreeSet<Entry>(ByName);
+        private final TreeSet<Entry> byDate = new TreeSet<Entry>(ByDate);
+        private final TreeSet<Entry> bySize = new TreeSet<Entry>(BySize);
+        private final TreeMap<Long, Entry> bySeq = new TreeMap<Long, Entry>();
+        private final LinkedHashMap<String, Long> removed = new LinkedHashMap<String, Long>();
+
+        private long seq = 0;
+        private long minSeq = 0;
+        private long scanned = -1;
+
+        private Directory(String filesRoot)
+        {
+            this.filesRoot = filesRoot;
+            root = new File(filesRoot);
+        }
+
+        public synchronized String GetToken()
+        {
+            return epoch + "-" + seq;
+        }
+
+        //the directory is rescanned only when it was changed bypassing Update
+        private synchronized void Refresh()
+        {
+            long modified = root.lastModified();
+            if (modified == scanned) return;
+
+            File[] files = root.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File pathname) {
+                    return pathname.isFile();
+                }
+            });
+
+            Map<String, File> found = new HashMap<String, File>();
+            if (files != null)
+            {
+                for (File file : files)
+                {
+                    found.put(file.getName(), file);
+                }
+            }
+
+            for (String name : new ArrayList<String>(entries.keySet()))
+            {
+                if (!found.containsKey(name))
+                {
+                    Remove(name);
+                }
+            }
+
+            for (File file : found.values())
+            {
+                Put(file);
+            }
+
+            scanned = modified;
+        }
+
+        private synchronized void Update(String fileName)
+        {
+            File file = new File(root, fileName);
+
+            if (file.isFile())
+            {
+                Put(file);
+            }
+            else
+            {
+                Remove(fileName);
+            }
+
+            if (scanned != -1)
+            {
+                scanned = root.lastModified();
+            }
+        }
+
+        private void Put(File file)
+        {
+            String name = file.getName();
+            long size = file.length();
+            long modified = file.lastModified();
+
+            Entry entry = entries.get(name);
+            if (entry != null && entry.size == size && entry.modified == modified) return;
+
+            Unlink(entry);
+
+            entry = new Entry(name, size, modified, ++seq);
+            entries.put(name, entry);
+            byName.add(entry);
+            byDate.add(entry);
+            bySize.add(entry);
+            bySeq.put(entry.seq, entry);
+            removed.remove(name);
+
+            if (StorageEvents.HasListeners(filesRoot))
+            {
+                Map<String, Object> change = new HashMap<String, Object>();
+                change.put("file", entry.ToMap());
+                Publish(change);
+            }
+        }
+
+        private void Remove(String name)
+        {
+            Entry entry = entries.remove(name);
+            if (entry == null) return;
+
+            Unlink(entry);
+
+            removed.put(name, ++seq);
+            if (removed.size() > MaxRemoved)
+            {
+                Iterator<Map.Entry<String, Long>> eldest = removed.entrySet().iterator();
+                minSeq = eldest.next().getValue();
+                eldest.remove();
+            }
+
+            if (StorageEvents.HasListeners(filesRoot))
+            {
+                Map<String, Object> change = new HashMap<String, Object>();
+                change.put("removed", name);
+                Publish(change);
+            }
+        }
+
+        //the previous token lets the subscriber detect a missed change and fall back to a full refresh
+        private void Publish(Map<String, Object> change)
+        {
+            change.put("from", epoch + "-" + (seq - 1));
+            change.put("token", GetToken());
+            StorageEvents.Publish(filesRoot, "change", new Gson().toJson(change));
+        }
+
+        private void Unlink(Entry entry)
+        {
+            if (entry == null) return;
+
+            byName.remove(entry);
+            byDate.remove(entry);
+            bySize.remove(entry);
+            bySeq.remove(entry.seq);
+        }
+
+        public synchronized Page List(String sort, boolean desc, FileType type, String cursor, int limit)
+        {
+            Comparator<Entry> comparator = "date".equals(sort) ? ByDate : "size".equals(sort) ? BySize : ByName;
+            NavigableSet<Entry> set = comparator == ByDate ? byDate : comparator == BySize ? bySize : byName;
+            if (desc) set = set.descendingSet();
+
+            Entry from = ParseCursor(comparator, cursor);
+            if (from != null) set = set.tailSet(from, false);
+
+            Page page = new Page();
+            page.token = GetToken();
+
+            for (Entry entry : set)
+            {
+                if (type != null && entry.type != type) continue;
+
+                if (page.files.size() == limit)
+                {
+                    page.next = GetCursor(comparator, page.files.get(limit - 1));
+                    break;
+                }
+
+                page.files.add(entry);
+            }
+
+            return page;
+        }
+
+        public synchronized Page Changes(String token)
+        {
+            Page page = new Page();
+            page.token = GetToken();
+
+            long since = -1;
+            if (token != null && token.startsWith(epoch + "-"))
+            {
+                try
+                {
+                    since = Long.parseLong(token.substring(epoch.length() + 1));
+                }
+                catch (NumberFormatException ex)
+                {
+                }
+            }
+
+            if (since < minSeq || since > seq)
+            {
+                page.reset = true;
+                return page;
+            }
+
+            page.files.addAll(bySeq.tailMap(since, false).values());
+            for (Map.Entry<String, Long> entry : removed.entrySet())
+            {
+                if (entry.getValue() > since)
+                {
+                    page.removed.add(entry.getKey());
+                }
+            }
+
+            return page;
+        }
+
+        private static String GetCursor(Comparator<Entry> comparator, Entry entry)
+        {
+            if (comparator == ByDate) return entry.modified + "/" + entry.name;
+            if (comparator == BySize) return entry.size + "/" + entry.name;
+            return entry.name;
+        }
+
+        //names can not contain a slash, so the sort value is separated by the first one
+        private static Entry ParseCursor(Comparator<Entry> comparator, String cursor)
+        {
+            if (cursor == null || cursor.isEmpty()) return null;
+
+            if (comparator == ByName)
+            {
+                return new Entry(cursor, 0, 0, 0);
+            }
+
+            int slash = cursor.indexOf('/');
+            if (slash < 0) return null;
+
+            try
+            {
+                long value = Long.parseLong(cursor.substring(0, slash));
+                String name = cursor.substring(slash + 1);
+
+                return comparator == ByDate ? new Entry(name, 0, value, 0) : new Entry(name, value, 0, 0);
+            }
+            catch (NumberFormatException ex)
+            {
+                return null;
+            }
+        }
+    }
+}
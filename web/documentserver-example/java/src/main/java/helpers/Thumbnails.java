@@ -0,0 +1,321 @@
+/**
+ *
+ * (c) Copyright Ascensio System SIA 2020
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package helpers;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+//first page images of the stored documents, made by the converter in the background after an upload or a save
+//and kept in a folder next to the storage that is bounded in size. a thumbnail is named by the sha-256 of the user
+//folder, the name and the modification time of its document, so a saved document simply gets a new one and the old
+//one ages out, and the folder is shared by all users without a collision of the 32 bit document keys between them
+public class Thumbnails
+{
+    //a file list waiting for the image goes before the documents that were just uploaded or saved
+    public static final int Visible = 0;
+    public static final int Saved = 1;
+
+    private static final String ThumbnailsFolder = ".thumbnails";
+    private static final String KeySuffix = "thumbnail";
+    private static final long TouchInterval = TimeUnit.DAYS.toMillis(1);
+
+    private static final ConcurrentHashMap<String, Task> Pending = new ConcurrentHashMap<String, Task>();
+    //the keys the converter failed on with the time they may be tried again, so a list is not requeueing them on each look
+    private static final ConcurrentHashMap<String, Long> Failed = new ConcurrentHashMap<String, Long>();
+    private static final AtomicLong Sequence = new AtomicLong();
+    private static final AtomicLong CachedBytes = new AtomicLong(-1);
+
+    //the partial downloads of the running tasks are neither counted nor pruned
+    private static final FileFilter PngFilter = new FileFilter()
+    {
+        @Override
+        public boolean accept(File file)
+        {
+            return file.getName().endsWith(".png");
+        }
+    };
+
+    //few threads with the lowest priority, so the previews never compete with the saves for the cpu or the converter
+    private static final ThreadPoolExecutor Executor;
+    static
+    {
+        int threads = (int) Math.max(1, ConfigManager.Get().GetLong("thumbnail-threads", 2));
+        Executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "thumbnailer");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        Executor.allowCoreThreadTimeOut(true);
+    }
+
+    private static class Task implements Runnable, Comparable<Task>
+    {
+        private final DocumentContext context;
+        private final String fileName;
+        private final String key;
+        private final long seq = Sequence.incrementAndGet();
+        private volatile int priority;
+
+        private Task(DocumentContext context, String fileName, String key, int priority)
+        {
+            this.context = context;
+            this.fileName = fileName;
+            this.key = key;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(Task other)
+        {
+            if (priority != other.priority) return priority < other.priority ? -1 : 1;
+            return Long.compare(seq, other.seq);
+        }
+
+        @Override
+        public void run()
+        {
+            Metrics.ThumbnailQueue.Decrement();
+            try
+            {
+                Generate(context, fileName, key);
+            }
+            finally
+            {
+                Pending.remove(key, this);
+            }
+        }
+    }
+
+    //cheap enough for the save path: a stat of the document and of its thumbnail, the work itself is queued
+    public static void Queue(DocumentContext context, String fileName, int priority)
+    {
+        File file = new File(DocumentManager.StoragePath(context, fileName, null));
+        if (!IsEnabled() || !file.isFile() || FileUtility.GetFileFormat(fileName) == null) return;
+
+        String key = GetKey(context, fileName);
+        if (GetFile(context, key).exists()) return;
+
+        Long retry = Failed.get(key);
+        if (retry != null)
+        {
+            if (retry - System.currentTimeMillis() > 0) return;
+            Failed.remove(key, retry);
+        }
+
+        Task task = new Task(context, fileName, key, priority);
+        Task queued = Pending.putIfAbsent(key, task);
+        if (queued == null)
+        {
+            Metrics.ThumbnailQueue.Increment();
+            Executor.execute(task);
+        }
+        else if (priority < queued.priority && Executor.remove(queued))
+        {
+            //the queue only orders a task when it is added, so a task that is needed sooner is added again
+            queued.priority = priority;
+            Executor.execute(queued);
+        }
+    }
+
+    //names the thumbnail of the current version of a document of the user, it is an ETag of the image as well
+    public static String GetKey(DocumentContext context, String fileName)
+    {
+        return DocumentManager.GetContentKey(context, fileName, KeySuffix);
+    }
+
+    //the thumbnail of the current version, or null when it is not made yet or the user has no such document,
+    //the name is made here of the document the caller found in the folder of the user and never taken from a request
+    public static File Get(DocumentContext context, String fileName)
+    {
+        if (!new File(DocumentManager.StoragePath(context, fileName, null)).isFile()) return null;
+
+        File file = GetFile(context, GetKey(context, fileName));
+        if (!file.isFile()) return null;
+
+        //the modification time orders the thumbnails for the pruning, so the ones in use are kept
+        long now = System.currentTimeMillis();
+        if (now - file.lastModified() > TouchInterval) file.setLastModified(now);
+        return file;
+    }
+
+    public static boolean IsEnabled()
+    {
+        return GetMaxSize() > 0;
+    }
+
+    public static void Shutdown()
+    {
+        Executor.shutdownNow();
+    }
+
+    private static long GetMaxSize()
+    {
+        return ConfigManager.Get().GetLong("thumbnail-cache-size", 64 * 1024 * 1024);
+    }
+
+    private static File GetFile(DocumentContext context, String key)
+    {
+        return new File(context.GetStorageRoot() + ThumbnailsFolder + File.separator + key + ".png");
+    }
+
+    private static void Generate(DocumentContext context, String fileName, String key)
+    {
+        //a document saved again while the task was waiting has a new key and a task of its own
+        if (!key.equals(GetKey(context, fileName))) return;
+
+        File target = GetFile(context, key);
+        if (target.exists()) return;
+
+        File temp = null;
+        try
+        {
+            ConfigManager.Config config = ConfigManager.Get();
+            ServiceConverter.Thumbnail thumbnail = new ServiceConverter.Thumbnail((int) config.GetLong("thumbnail-width", 128), (int) config.GetLong("thumbnail-height", 128));
+            String fileUri = DocumentManager.GetFileUri(context, fileName);
+            //the converter takes 20 characters of a key, 80 bits of the digest instead of a hash of it
+            String revisionId = key.substring(0, 20);
+            long deadline = System.currentTimeMillis() + config.timeout;
+
+            String imageUri;
+            while ((imageUri = ServiceConverter.GetConvertedUri(fileUri, FileUtility.GetFileExtension(fileName), ".png", revisionId, true, thumbnail)).isEmpty())
+            {
+                if (System.currentTimeMillis() > deadline) throw new Exception("Conversion timeout");
+                Thread.sleep(1000);
+            }
+
+            File folder = target.getParentFile();
+            folder.mkdirs();
+            GetCachedBytes(folder);
+
+            temp = File.createTempFile("thumbnail", ".part", folder);
+            DocumentManager.DownloadToFile(imageUri, temp);
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            temp = null;
+
+            Metrics.ThumbnailsGenerated.Increment();
+            if (CachedBytes.addAndGet(target.length()) > GetMaxSize()) Prune(folder);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (Exception ex)
+        {
+            Metrics.ThumbnailsFailed.Increment();
+            Fail(key);
+        }
+        finally
+        {
+            if (temp != null) temp.delete();
+        }
+    }
+
+    //the failures that may be tried again are dropped with each new one, so the keys of documents saved since go as well
+    private static void Fail(String key)
+    {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Long> entry : Failed.entrySet())
+        {
+            if (entry.getValue() - now <= 0) Failed.remove(entry.getKey(), entry.getValue());
+        }
+        Failed.put(key, now + TimeUnit.SECONDS.toMillis(ConfigManager.Get().GetLong("thumbnail-retry-after", 600)));
+    }
+
+    //the size of the folder is counted once, after that it is kept up to date by the writer of each thumbnail
+    private static long GetCachedBytes(File folder)
+    {
+        if (CachedBytes.get() < 0)
+        {
+            synchronized (CachedBytes)
+            {
+                if (CachedBytes.get() < 0)
+                {
+                    long total = 0;
+                    File[] files = folder.listFiles(PngFilter);
+                    if (files != null)
+                    {
+                        for (File file : files)
+                        {
+                            total += file.length();
+                        }
+                    }
+                    CachedBytes.set(total);
+                }
+            }
+        }
+        return CachedBytes.get();
+    }
+
+    //drops the least recently used thumbnails until a tenth of the space is free again, including those of removed documents
+    private static void Prune(File folder)
+    {
+        synchronized (CachedBytes)
+        {
+            long maxSize = GetMaxSize();
+            if (CachedBytes.get() <= maxSize) return;
+
+            File[] files = folder.listFiles(PngFilter);
+            if (files == null) return;
+
+            final long[] modified = new long[files.length];
+            Integer[] order = new Integer[files.length];
+            long total = 0;
+            for (int i = 0; i < files.length; i++)
+            {
+                modified[i] = files[i].lastModified();
+                order[i] = i;
+                total += files[i].length();
+            }
+            Arrays.sort(order, new Comparator<Integer>()
+            {
+                @Override
+                public int compare(Integer a, Integer b)
+                {
+                    return Long.compare(modified[a], modified[b]);
+                }
+            });
+
+            for (int i = 0; i < order.length && total > maxSize - maxSize / 10; i++)
+            {
+                File file = files[order[i]];
+                long length = file.length();
+                if (file.delete()) total -= length;
+            }
+            CachedBytes.set(total);
+        }
+    }
+}
@@ -1,4 +1,4 @@
-<%@page import="entities.FileModel"%>
+<%@page import="helpers.StaticAssets"%>
 <%@page contentType="text/html" pageEncoding="UTF-8"%>
 
 <!DOCTYPE html>
@@ -29,9 +29,10 @@
 
         <title>ONLYOFFICE</title>
         <link rel="icon" href="favicon.ico" type="image/x-icon" />
-        <link rel="stylesheet" type="text/css" href="css/editor.css" />
+        <link rel="stylesheet" type="text/css" href="<%= StaticAssets.Url("css/editor.css") %>" />
 
-        <% FileModel Model = (FileModel) request.getAttribute("file"); %>
+        <% String editorConfig = (String) request.getAttribute("config"); %>
+        <% Boolean hasHistory = (Boolean) request.getAttribute("hasHistory"); %>
 
         <script type="text/javascript" src="${docserviceApiUrl}"></script>
 
@@ -88,7 +89,7 @@
             docEditor.setActionLink(replaceActionLink(location.href, linkParam));
         };
 
-        var config = JSON.parse('<%= FileModel.Serialize(Model) %>');
+        var config = JSON.parse('<%= editorConfig %>');
         config.width = "100%";
         config.height = "100%";
         config.events = {
@@ -100,24 +101,49 @@
             "onMakeActionLink": onMakeActionLink,
         };
 
-        <%
-            String[] histArray = Model.GetHistory();
-            String history = histArray[0];
-            String historyData = histArray[1];
-        %>
+        <% if (hasHistory) { %>
+            var historyUrl = "HistoryServlet?fileName=" + encodeURIComponent(config.document.title);
+
+            var requestHistory = function (url, callback) {
+                var xhr = new XMLHttpRequest();
+                xhr.open("GET", url, true);
+                xhr.onload = function () {
+                    if (xhr.status == 200) {
+                        callback(JSON.parse(xhr.responseText));
+                    } else {
+                        innerAlert("History request failed: " + xhr.status);
+                    }
+                };
+                xhr.send();
+            };
 
-        <% if (!history.isEmpty() && !historyData.isEmpty()) { %>
             config.events['onRequestHistory'] = function () {
-                docEditor.refreshHistory(<%= history %>);
+                requestHistory(historyUrl, function (data) {
+                    docEditor.refreshHistory(data);
+                });
             };
             config.events['onRequestHistoryData'] = function (event) {
                 var ver = event.data;
-                var histData = <%= historyData %>;
-                docEditor.setHistoryData(histData[ver]);
+                requestHistory(historyUrl + "&version=" + ver, function (data) {
+                    docEditor.setHistoryData(data);
+                });
             };
             config.events['onRequestHistoryClose'] = function () {
                 document.location.reload();
             };
+            config.events['onRequestRestore'] = function (event) {
+                var xhr = new XMLHttpRequest();
+                xhr.open("POST", "IndexServlet?type=restore&filename=" + encodeURIComponent(config.document.title) + "&version=" + event.data.version, true);
+                xhr.onload = function () {
+                    var response = xhr.status == 200 ? JSON.parse(xhr.responseText) : { "error": xhr.status };
+                    if (response.error) {
+                        innerAlert("Restore failed: " + response.error);
+                    } else {
+                        document.location.reload();
+                    }
+                };
+                xhr.send();
+            };
         <% } %>
 
         var сonnectEditor = function () {
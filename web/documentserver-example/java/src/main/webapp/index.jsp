@@ -1,9 +1,8 @@
+<%@page import="helpers.StaticAssets"%>
+<%@page import="helpers.ChunkedUpload"%>
 <%@page import="helpers.DocumentManager"%>
-<%@page import="helpers.FileUtility"%>
 <%@page import="helpers.ConfigManager"%>
 <%@page import="java.util.Calendar"%>
-<%@page import="java.io.File"%>
-<%@page import="java.net.URLEncoder"%>
 <%@page contentType="text/html" pageEncoding="UTF-8"%>
 
 <!DOCTYPE html>
@@ -32,8 +31,8 @@
         <title>ONLYOFFICE</title>
         <link rel="icon" href="favicon.ico" type="image/x-icon" />
         <link rel="stylesheet" type="text/css" href="https://fonts.googleapis.com/css?family=Open+Sans:900,800,700,600,500,400,300&subset=latin,cyrillic-ext,cyrillic,latin-ext" />
-        <link rel="stylesheet" type="text/css" href="css/stylesheet.css" />
-        <link rel="stylesheet" type="text/css" href="css/jquery-ui.css" />
+        <link rel="stylesheet" type="text/css" href="<%= StaticAssets.Url("css/stylesheet.css") %>" />
+        <link rel="stylesheet" type="text/css" href="<%= StaticAssets.Url("css/jquery-ui.css") %>" />
     </head>
     <body>
 
@@ -118,104 +117,31 @@
                 </div>
             </div>
 
-            <% DocumentManager.Init(request, response); %>
-            <% File[] files = DocumentManager.GetStoredFiles(null); %>
-            <% if (files.length > 0) { %>
-
-                <div class="help-block">
-                    <span>Your documents</span>
-                    <br />
-                    <br />
-
-                    <div class="stored-list">
-                        <table width="100%" cellspacing="0" cellpadding="0">
-                            <thead>
-                                <tr class="tableHeader">
-                                    <td class="tableHeaderCell tableHeaderCellFileName">Filename</td>
-                                    <td colspan="6" class="tableHeaderCell contentCells-shift">Editors</td>
-                                    <td colspan="3" class="tableHeaderCell">Viewers</td>
-                                </tr>
-                            </thead>
-                            <tbody>
-                                <% for (Integer i = 0; i < files.length; i++) { %>
-                                    <% String docType = FileUtility.GetFileType(files[i].getName()).toString().toLowerCase(); %>
-                                    <tr class="tableRow" title="<%= files[i].getName() %>">
-                                        <td class="contentCells">
-                                            <a class="stored-edit <%= docType %>" href="EditorServlet?fileName=<%= URLEncoder.encode(files[i].getName(), "UTF-8") %>" target="_blank">
-                                                <span title="<%= files[i].getName() %>"><%= files[i].getName() %></span>
-                                            </a>
-                                            <a href="<%= DocumentManager.GetFileUri(files[i].getName()) %>">
-                                                <img class="icon-download" src="css/img/download-24.png" alt="Download" title="Download" />
-                                            </a>
-                                            <a class="delete-file" data-filename="<%= files[i].getName() %>">
-                                                <img class="icon-delete" src="css/img/delete-24.png" alt="Delete" title="Delete" />
-                                            </a>
-                                        </td>
-
-                                        <td class="contentCells contentCells-icon">
-                                            <a href="EditorServlet?fileName=<%= URLEncoder.encode(files[i].getName(), "UTF-8") %>&type=desktop&mode=edit" target="_blank">
-                                                <img src="css/img/desktop-24.png" alt="Open in editor for full size screens" title="Open in editor for full size screens"/>
-                                            </a>
-                                        </td>
-                                        <td class="contentCells contentCells-icon">
-                                            <a href="EditorServlet?fileName=<%= URLEncoder.encode(files[i].getName(), "UTF-8") %>&type=mobile&mode=edit" target="_blank">
-                                                <img src="css/img/mobile-24.png" alt="Open in editor for mobile devices" title="Open in editor for mobile devices"/>
-                                            </a>
-                                        </td>
-                                        <td class="contentCells contentCells-icon">
-                                            <% if (docType.equals("text")) { %>
-                                                <a href="EditorServlet?fileName=<%= URLEncoder.encode(files[i].getName(), "UTF-8") %>&type=desktop&mode=review" target="_blank">
-                                                    <img src="css/img/review-24.png" alt="Open in editor for review" title="Open in editor for review"/>
-                                                </a>
-                                            <% } else if (docType.equals("spreadsheet")) { %>
-                                                <a href="EditorServlet?fileName=<%= URLEncoder.encode(files[i].getName(), "UTF-8") %>&type=desktop&mode=filter" target="_blank">
-                                                    <img src="css/img/filter-24.png" alt="Open in editor without access to change the filter" title="Open in editor without access to change the filter" />
-                                                </a>
-                                            <% } %>
-                                        </td>
-                                        <td class="contentCells contentCells-icon">
-                                            <a href="EditorServlet?fileName=<%= URLEncoder.encode(files[i].getName(), "UTF-8") %>&type=desktop&mode=comment" target="_blank">
-                                                <img src="css/img/comment-24.png" alt="Open in editor for comment" title="Open in editor for comment"/>
-                                            </a>
-                                        </td>
-                                        <td class="contentCells contentCells-icon">
-                                            <% if (docType.equals("text")) { %>
-                                                <a href="EditorServlet?fileName=<%= URLEncoder.encode(files[i].getName(), "UTF-8") %>&type=desktop&mode=fillForms" target="_blank">
-                                                    <img src="css/img/fill-forms-24.png" alt="Open in editor for filling in forms" title="Open in editor for filling in forms"/>
-                                                </a>
-                                            <% } %>
-                                        </td>
-                                        <td class="contentCells contentCells-shift contentCells-icon">
-                                            <% if (docType.equals("text")) { %>
-                                                <a href="EditorServlet?fileName=<%= URLEncoder.encode(files[i].getName(), "UTF-8") %>&type=desktop&mode=blockcontent" target="_blank">
-                                                    <img src="css/img/block-content-24.png" alt="Open in editor without content control modification" title="Open in editor without content control modification"/>
-                                                </a>
-                                            <% } %>
-                                        </td>
+            <div id="storedFiles" class="help-block">
+                <span>Your documents</span>
+                <br />
+                <br />
 
-                                        <td class="contentCells contentCells-icon">
-                                            <a href="EditorServlet?fileName=<%= URLEncoder.encode(files[i].getName(), "UTF-8") %>&type=desktop&mode=view" target="_blank">
-                                                <img src="css/img/desktop-24.png" alt="Open in viewer for full size screens" title="Open in viewer for full size screens"/>
-                                            </a>
-                                        </td>
-                                        <td class="contentCells contentCells-icon">
-                                            <a href="EditorServlet?fileName=<%= URLEncoder.encode(files[i].getName(), "UTF-8") %>&type=mobile&mode=view" target="_blank">
-                                                <img src="css/img/mobile-24.png" alt="Open in viewer for mobile devices" title="Open in viewer for mobile devices"/>
-                                            </a>
-                                        </td>
-                                        <td class="contentCells contentCells-icon">
-                                            <a href="EditorServlet?fileName=<%= URLEncoder.encode(files[i].getName(), "UTF-8") %>&type=embedded&mode=embedded" target="_blank">
-                                                <img src="css/img/embeded-24.png" alt="Open in embedded mode" title="Open in embedded mode"/>
-                                            </a>
-                                        </td>
-                                    </tr>
-                                <% } %>
-                            </tbody>
-                        </table>
-                    </div>
+                <div class="stored-search">
+                    <input id="searchQuery" type="search" placeholder="Search in your documents" />
+                    <ul id="searchResults"></ul>
                 </div>
 
-            <% } %>
+                <div class="stored-list">
+                    <table width="100%" cellspacing="0" cellpadding="0">
+                        <thead>
+                            <tr class="tableHeader">
+                                <td class="tableHeaderCell tableHeaderCellFileName">Filename</td>
+                                <td colspan="6" class="tableHeaderCell contentCells-shift">Editors</td>
+                                <td colspan="3" class="tableHeaderCell">Viewers</td>
+                            </tr>
+                        </thead>
+                        <tbody id="filesList"></tbody>
+                    </table>
+                    <a id="moreFiles" class="stored-more">Show more</a>
+                    <a id="exportFiles" class="stored-export" href="ExportServlet?history=true">Download all with history</a>
+                </div>
+            </div>
 
             <br />
             <br />
@@ -270,25 +196,32 @@
             <div id="cancelEdit" class="button gray">Cancel</div>
         </div>
 
-        <span id="loadScripts" data-docs="<%= ConfigManager.GetProperty("files.docservice.url.preloader") %>"></span>
+        <span id="loadScripts" data-docs="<%= ConfigManager.Get().preloaderUrl %>"></span>
 
         <div class="bottom-panel">
             &copy; Ascensio System SIA <%= Calendar.getInstance().get(Calendar.YEAR) %>. All rights reserved.
         </div>
 
-        <script type="text/javascript" src="scripts/jquery-1.8.2.js"></script>
-        <script type="text/javascript" src="scripts/jquery-ui.js"></script>
-        <script type="text/javascript" src="scripts/jquery.blockUI.js"></script>
-        <script type="text/javascript" src="scripts/jquery.iframe-transport.js"></script>
-        <script type="text/javascript" src="scripts/jquery.fileupload.js"></script>
-        <script type="text/javascript" src="scripts/jquery.dropdownToggle.js"></script>
-        <script type="text/javascript" src="scripts/jscript.js"></script>
+        <script type="text/javascript" src="<%= StaticAssets.Url("scripts/jquery-1.8.2.js") %>"></script>
+        <script type="text/javascript" src="<%= StaticAssets.Url("scripts/jquery-ui.js") %>"></script>
+        <script type="text/javascript" src="<%= StaticAssets.Url("scripts/jquery.blockUI.js") %>"></script>
+        <script type="text/javascript" src="<%= StaticAssets.Url("scripts/jquery.iframe-transport.js") %>"></script>
+        <script type="text/javascript" src="<%= StaticAssets.Url("scripts/jquery.fileupload.js") %>"></script>
+        <script type="text/javascript" src="<%= StaticAssets.Url("scripts/jquery.dropdownToggle.js") %>"></script>
+        <script type="text/javascript" src="<%= StaticAssets.Url("scripts/jscript.js") %>"></script>
 
         <script language="javascript" type="text/javascript">
             var ConverExtList = "<%= String.join(",", DocumentManager.GetConvertExts()) %>";
             var EditedExtList = "<%= String.join(",", DocumentManager.GetEditedExts()) %>";
             var UrlConverter = "IndexServlet?type=convert";
+            var UrlUpload = "IndexServlet?type=upload-";
+            var UploadChunkSize = <%= ChunkedUpload.GetChunkSize() %>;
             var UrlEditor = "EditorServlet";
+            var UrlFiles = "FilesServlet";
+            var UrlDownloadAs = "DownloadAsServlet";
+            var UrlThumbnail = "ThumbnailServlet";
+            var UrlSearch = "SearchServlet";
+            var UrlEvents = "EventsServlet";
         </script>
 
     </body>
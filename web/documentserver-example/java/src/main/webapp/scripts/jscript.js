@@ -39,32 +39,181 @@ if (typeof jQuery !== "undefined") {
                 });
                 jq("#beginEdit, #beginView, #beginEmbedded").addClass("disable");
 
-                data.submit();
+                var file = data.files[0];
+                if (file && file.size > UploadChunkSize && file.slice && window.FileReader) {
+                    uploadChunked(file, uploadDone);
+                } else {
+                    data.submit();
+                }
             },
             always: function (e, data) {
-                if (!jq("#mainProgress").is(":visible")) {
+                uploadDone(data.result);
+            }
+        });
+
+        initSelectors();
+        loadFiles(null);
+        listenFiles();
+    });
+
+    var uploadDone = function (response) {
+        if (!jq("#mainProgress").is(":visible")) {
+            return;
+        }
+        if (response.error) {
+            jq(".current").removeClass("current");
+            jq(".step:not(.done)").addClass("error");
+            jq("#mainProgress .error-message").show().find("span").text(response.error);
+            jq('#hiddenFileName').val("");
+            return;
+        }
+
+        jq("#hiddenFileName").val(response.filename);
+
+        jq("#step1").addClass("done").removeClass("current");
+        jq("#step2").addClass("current");
+
+        checkConvert();
+    };
+
+    var crcTable = null;
+    var crc32 = function (bytes) {
+        if (crcTable === null) {
+            crcTable = [];
+            for (var n = 0; n < 256; n++) {
+                var c = n;
+                for (var k = 0; k < 8; k++) {
+                    c = c & 1 ? 0xEDB88320 ^ (c >>> 1) : c >>> 1;
+                }
+                crcTable[n] = c >>> 0;
+            }
+        }
+
+        var crc = 0xFFFFFFFF;
+        for (var i = 0; i < bytes.length; i++) {
+            crc = crcTable[(crc ^ bytes[i]) & 0xFF] ^ (crc >>> 8);
+        }
+        return ((crc ^ 0xFFFFFFFF) >>> 0).toString(16);
+    };
+
+    //large files are sent in chunks, a few at a time, a failed chunk is sent again,
+    //and the upload id is kept so that a reloaded page continues with the missing chunks
+    var uploadChunked = function (file, callback) {
+        var storageKey = "upload:" + file.name + ":" + file.size + ":" + file.lastModified;
+        var storage = window.localStorage || null;
+
+        var fail = function (error) {
+            callback({ error: error || "Upload failed" });
+        };
+
+        var send = function (upload, missing) {
+            var active = 0;
+            var failed = false;
+
+            var next = function () {
+                if (failed) {
                     return;
                 }
-                var response = data.result;
-                if (response.error) {
-                    jq(".current").removeClass("current");
-                    jq(".step:not(.done)").addClass("error");
-                    jq("#mainProgress .error-message").show().find("span").text(response.error);
-                    jq('#hiddenFileName').val("");
+
+                if (!missing.length && !active) {
+                    jq.post(UrlUpload + "commit&id=" + upload.id, function (response) {
+                        if (storage) {
+                            storage.removeItem(storageKey);
+                        }
+                        callback(response);
+                    }, "json").fail(function () {
+                        fail();
+                    });
                     return;
                 }
 
-                jq("#hiddenFileName").val(response.filename);
+                while (active < 3 && missing.length) {
+                    sendChunk(missing.shift(), 0);
+                }
+            };
 
-                jq("#step1").addClass("done").removeClass("current");
-                jq("#step2").addClass("current");
+            var sendChunk = function (index, attempt) {
+                active++;
 
-                checkConvert();
-            }
-        });
+                var retry = function (xhr, error) {
+                    if (attempt >= 5) {
+                        failed = true;
+                        fail(error);
+                        return;
+                    }
+                    var retryAfter = xhr ? parseInt(xhr.getResponseHeader("Retry-After"), 10) : 0;
+                    setTimeout(function () {
+                        active--;
+                        sendChunk(index, attempt + 1);
+                    }, (retryAfter || Math.pow(2, attempt)) * 1000);
+                };
+
+                var reader = new FileReader();
+                reader.onload = function () {
+                    var bytes = new Uint8Array(reader.result);
+                    jq.ajax({
+                        url: UrlUpload + "chunk&id=" + upload.id + "&index=" + index + "&crc32=" + crc32(bytes),
+                        type: "POST",
+                        data: bytes,
+                        processData: false,
+                        contentType: "application/octet-stream",
+                        dataType: "json"
+                    }).done(function (response) {
+                        if (response.error) {
+                            retry(null, response.error);
+                            return;
+                        }
+                        active--;
+                        next();
+                    }).fail(function (xhr) {
+                        retry(xhr);
+                    });
+                };
+                reader.onerror = function () {
+                    failed = true;
+                    fail();
+                };
+                reader.readAsArrayBuffer(file.slice(index * upload.chunkSize, Math.min(file.size, (index + 1) * upload.chunkSize)));
+            };
+
+            next();
+        };
+
+        var start = function () {
+            jq.post(UrlUpload + "start&name=" + encodeURIComponent(file.name) + "&size=" + file.size, function (upload) {
+                if (upload.error) {
+                    fail(upload.error);
+                    return;
+                }
+                if (storage) {
+                    storage.setItem(storageKey, upload.id);
+                }
 
-        initSelectors();
-    });
+                var missing = [];
+                for (var i = 0; i < upload.chunks; i++) {
+                    missing.push(i);
+                }
+                send(upload, missing);
+            }, "json").fail(function () {
+                fail();
+            });
+        };
+
+        var id = storage ? storage.getItem(storageKey) : null;
+        if (!id) {
+            start();
+            return;
+        }
+
+        jq.get(UrlUpload + "status&id=" + id, function (status) {
+            if (status.error) {
+                storage.removeItem(storageKey);
+                start();
+                return;
+            }
+            send(status, status.missing);
+        }, "json").fail(start);
+    };
     
     var timer = null;
     var checkConvert = function () {
@@ -140,6 +289,7 @@ if (typeof jQuery !== "undefined") {
             return;
         }
         jq("#step3").addClass("done").removeClass("current");
+        refreshFiles();
         jq("#beginView, #beginEmbedded").removeClass("disable");
 
         var fileName = jq("#hiddenFileName").val();
@@ -218,10 +368,181 @@ if (typeof jQuery !== "undefined") {
         }
         var w = window.open(url, "_blank");
         w.onload = function () {
-            window.location.reload();
+            refreshFiles();
         }
     });
 
+    var filesToken = null;
+    var filesCursor = null;
+    var filesUrl = "";
+
+    var editorLink = function (name, query, image, title) {
+        var link = jq("<a target=\"_blank\"></a>").attr("href", UrlEditor + "?fileName=" + encodeURIComponent(name) + query);
+        return link.append(jq("<img />").attr({ src: "css/img/" + image, alt: title, title: title }));
+    };
+
+    var renderFile = function (file) {
+        var row = jq("<tr class=\"tableRow\"></tr>").attr({ title: file.name, "data-filename": file.name });
+        var isText = file.type == "text";
+        var isSpreadsheet = file.type == "spreadsheet";
+
+        var nameCell = jq("<td class=\"contentCells\"></td>").appendTo(row);
+        var editLink = jq("<a class=\"stored-edit\" target=\"_blank\"></a>").addClass(file.type)
+            .attr("href", UrlEditor + "?fileName=" + encodeURIComponent(file.name))
+            .append(jq("<span></span>").attr("title", file.name).text(file.name))
+            .appendTo(nameCell);
+        jq("<img class=\"stored-thumb\" alt=\"\" />")
+            .on("load", function () {
+                editLink.addClass("with-thumb");
+            })
+            .attr("src", UrlThumbnail + "?fileName=" + encodeURIComponent(file.name) + "&modified=" + file.modified)
+            .prependTo(editLink);
+        jq("<a></a>").attr("href", filesUrl + encodeURIComponent(file.name))
+            .append("<img class=\"icon-download\" src=\"css/img/download-24.png\" alt=\"Download\" title=\"Download\" />")
+            .appendTo(nameCell);
+        if (!/\.pdf$/i.test(file.name)) {
+            jq("<a class=\"download-as\" title=\"Download as PDF\">PDF</a>")
+                .attr("href", UrlDownloadAs + "?fileName=" + encodeURIComponent(file.name) + "&format=pdf")
+                .appendTo(nameCell);
+        }
+        jq("<a class=\"delete-file\"></a>").attr("data-filename", file.name)
+            .append("<img class=\"icon-delete\" src=\"css/img/delete-24.png\" alt=\"Delete\" title=\"Delete\" />")
+            .appendTo(nameCell);
+
+        var cells = [
+            editorLink(file.name, "&type=desktop&mode=edit", "desktop-24.png", "Open in editor for full size screens"),
+            editorLink(file.name, "&type=mobile&mode=edit", "mobile-24.png", "Open in editor for mobile devices"),
+            isText ? editorLink(file.name, "&type=desktop&mode=review", "review-24.png", "Open in editor for review")
+                : isSpreadsheet ? editorLink(file.name, "&type=desktop&mode=filter", "filter-24.png", "Open in editor without access to change the filter") : null,
+            editorLink(file.name, "&type=desktop&mode=comment", "comment-24.png", "Open in editor for comment"),
+            isText ? editorLink(file.name, "&type=desktop&mode=fillForms", "fill-forms-24.png", "Open in editor for filling in forms") : null,
+            isText ? editorLink(file.name, "&type=desktop&mode=blockcontent", "block-content-24.png", "Open in editor without content control modification") : null,
+            editorLink(file.name, "&type=desktop&mode=view", "desktop-24.png", "Open in viewer for full size screens"),
+            editorLink(file.name, "&type=mobile&mode=view", "mobile-24.png", "Open in viewer for mobile devices"),
+            editorLink(file.name, "&type=embedded&mode=embedded", "embeded-24.png", "Open in embedded mode")
+        ];
+
+        jq.each(cells, function (i, link) {
+            var cell = jq("<td class=\"contentCells contentCells-icon\"></td>").appendTo(row);
+            if (i == 5) cell.addClass("contentCells-shift");
+            if (link) cell.append(link);
+        });
+
+        return row;
+    };
+
+    var findFileRow = function (name) {
+        return jq("#filesList tr").filter(function () {
+            return jq(this).attr("data-filename") === name;
+        });
+    };
+
+    var insertFileRow = function (file) {
+        var row = renderFile(file);
+        var name = file.name.toLowerCase();
+        var next = jq("#filesList tr").filter(function () {
+            return jq(this).attr("data-filename").toLowerCase() > name;
+        }).first();
+
+        if (next.length) {
+            next.before(row);
+        } else if (filesCursor === null) {
+            jq("#filesList").append(row);
+        }
+    };
+
+    var showFiles = function () {
+        jq("#storedFiles").toggle(jq("#filesList tr").length > 0);
+        jq("#moreFiles").toggle(filesCursor !== null);
+    };
+
+    var loadFiles = function (cursor) {
+        jq.ajax({
+            async: true,
+            dataType: "json",
+            url: UrlFiles + (cursor ? "?cursor=" + encodeURIComponent(cursor) : ""),
+            success: function (data) {
+                if (!cursor) {
+                    jq("#filesList").empty();
+                    filesToken = data.token;
+                }
+                filesUrl = data.filesUrl;
+                filesCursor = data.next || null;
+                jq.each(data.files, function (i, file) {
+                    jq("#filesList").append(renderFile(file));
+                });
+                showFiles();
+            }
+        });
+    };
+
+    var refreshFiles = function () {
+        if (filesToken === null) {
+            loadFiles(null);
+            return;
+        }
+
+        jq.ajax({
+            async: true,
+            dataType: "json",
+            url: UrlFiles + "?since=" + encodeURIComponent(filesToken),
+            success: function (data) {
+                if (data.reset) {
+                    loadFiles(null);
+                    return;
+                }
+                filesToken = data.token;
+                jq.each(data.removed, function (i, name) {
+                    findFileRow(name).remove();
+                });
+                jq.each(data.files, function (i, file) {
+                    findFileRow(file.name).remove();
+                    insertFileRow(file);
+                });
+                showFiles();
+            }
+        });
+    };
+
+    var applyChange = function (change) {
+        if (filesToken === null) {
+            return;
+        }
+        if (filesToken !== change.from) {
+            refreshFiles();
+            return;
+        }
+        filesToken = change.token;
+        if (change.removed) {
+            findFileRow(change.removed).remove();
+        }
+        if (change.file) {
+            findFileRow(change.file.name).remove();
+            insertFileRow(change.file);
+        }
+        showFiles();
+    };
+
+    var listenFiles = function () {
+        if (!window.EventSource) {
+            return;
+        }
+
+        var source = new EventSource(UrlEvents);
+        source.addEventListener("token", function (event) {
+            if (filesToken !== null && filesToken !== event.data) {
+                refreshFiles();
+            }
+        });
+        source.addEventListener("change", function (event) {
+            applyChange(JSON.parse(event.data));
+        });
+    };
+
+    jq(document).on("click", "#moreFiles", function () {
+        loadFiles(filesCursor);
+    });
+
     jq(document).on("click", ".delete-file", function () {
         var requestAddress = "IndexServlet"
             + "?type=remove"
@@ -232,9 +553,62 @@ if (typeof jQuery !== "undefined") {
             contentType: "text/xml",
             url: requestAddress,
             complete: function (data) {
-                document.location.reload();
+                refreshFiles();
+            }
+        });
+    });
+
+    var searchTimer = null;
+    var searchRequest = null;
+
+    var highlight = function (text, terms) {
+        var escaped = jq("<div></div>").text(text).html();
+        if (!terms.length) return escaped;
+        var pattern = new RegExp("(^|[^\\w])(" + terms.join("|") + ")(?=[^\\w]|$)", "gi");
+        return escaped.replace(pattern, "$1<b>$2</b>");
+    };
+
+    var renderSearch = function (data, terms) {
+        var list = jq("#searchResults").empty();
+        if (!data.results.length) {
+            list.append(jq("<li class=\"search-empty\"></li>").text("Nothing found"));
+            return;
+        }
+        jq.each(data.results, function (i, result) {
+            var item = jq("<li></li>").appendTo(list);
+            jq("<a class=\"search-name\" target=\"_blank\"></a>")
+                .attr("href", UrlEditor + "?fileName=" + encodeURIComponent(result.name))
+                .text(result.name)
+                .appendTo(item);
+            if (result.snippet) {
+                jq("<div class=\"search-snippet\"></div>").html(highlight(result.snippet, terms)).appendTo(item);
             }
         });
+    };
+
+    jq(document).on("input", "#searchQuery", function () {
+        var query = jq(this).val().trim();
+        clearTimeout(searchTimer);
+        if (searchRequest) searchRequest.abort();
+        if (!query) {
+            jq("#searchResults").empty();
+            return;
+        }
+
+        //the words are escaped for the highlighting, they are matched as whole words as the index does
+        var terms = jq.map(query.toLowerCase().split(/[^\w\u00C0-\uFFFF]+/), function (term) {
+            return term ? term.replace(/[.*+?^${}()|[\]\\]/g, "\\$&") : null;
+        });
+        searchTimer = setTimeout(function () {
+            searchRequest = jq.ajax({
+                async: true,
+                dataType: "json",
+                url: UrlSearch + "?query=" + encodeURIComponent(query),
+                success: function (data) {
+                    renderSearch(data, terms);
+                }
+            });
+        }, 250);
     });
 
     jq.dropdownToggle({